@@ -13,6 +13,10 @@ import software.amazon.awssdk.services.sqs.model.*;
 import java.io.*;
 import java.nio.charset.StandardCharsets;
 import java.util.*;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.stream.Collectors;
 import java.util.concurrent.atomic.AtomicBoolean;
 
@@ -25,6 +29,8 @@ public abstract class AWS {
     protected String client2managerUrl;
     protected String manager2workersUrl;
     protected String workers2managerUrl;
+    protected String workersStatusUrl;
+    protected final Map<TaskLane, String> laneUrls = new EnumMap<>(TaskLane.class);
     protected String bucketName = "dsp-01-omer";
 //    protected String bucketName = "kita-dsp-01";
 
@@ -32,19 +38,33 @@ public abstract class AWS {
     protected String completedTaskDir = "completedTasks/";
     protected String customerFilesDir = "customerFiles/";
     protected String jarsDir = "jars/";
+    protected String resultCacheDir = "resultCache/";
     protected int MAX_INSTANCES = 9;
 
+    protected static final int SQS_BATCH_SIZE = 10;
+    private static final int SQS_BATCH_MAX_BYTES = 256 * 1024;
+    private static final int SQS_BATCH_MAX_ATTEMPTS = 5;
+    private final int s3PartSize = Math.max(Integer.getInteger("cloudpdf.s3.partSize", 8 * 1024 * 1024), 5 * 1024 * 1024);
+    private final int s3PartsInFlight = Integer.getInteger("cloudpdf.s3.partsInFlight", 2);
+    private final ExecutorService batchSenderExecutorService = Executors.newFixedThreadPool(
+            Integer.getInteger("cloudpdf.sqs.batchesInFlight", 4), DaemonThreads.named("sqs-batch-sender"));
+
     protected void getOrCreateDirs() {
         checkAndCreateDirInS3(newTasksDir);
         checkAndCreateDirInS3(completedTaskDir);
         checkAndCreateDirInS3(customerFilesDir);
         checkAndCreateDirInS3(jarsDir);
+        checkAndCreateDirInS3(resultCacheDir);
     }
 
     protected void getOrCreateQueueUrls() {
         client2managerUrl = getOrCreateQueueUrl("client2manager");
-        manager2workersUrl = getOrCreateQueueUrl("manager2workers");
         workers2managerUrl = getOrCreateQueueUrl("workers2manager");
+        workersStatusUrl = getOrCreateQueueUrl("workers-status");
+        for (TaskLane lane : TaskLane.values()) {
+            laneUrls.put(lane, getOrCreateQueueUrl(lane.queueName()));
+        }
+        manager2workersUrl = laneUrls.get(TaskLane.LIGHT);
     }
 
     protected void connectAWS() {
@@ -165,8 +185,9 @@ public abstract class AWS {
             for (String queueUrl : listQueuesResponse.queueUrls()) {
                 String queueName = queueUrl.substring(queueUrl.lastIndexOf('/') + 1);
                 if (!queueName.equals("client2manager") &&
-                        !queueName.equals("manager2workers") &&
-                        !queueName.equals("workers2manager")) {
+                        Arrays.stream(TaskLane.values()).noneMatch(lane -> lane.queueName().equals(queueName)) &&
+                        !queueName.equals("workers2manager") &&
+                        !queueName.equals("workers-status")) {
                     deleteQueue(queueUrl);
                 } else {
                     purgeQueue(queueUrl);
@@ -274,20 +295,39 @@ public abstract class AWS {
         }
     }
 
-    protected void uploadFileToS3(String s3Path, ByteArrayOutputStream stream) {
-//        System.out.println("Uploading file to S3...");
-        try {
-            PutObjectRequest putObjectRequest = PutObjectRequest.builder()
-                    .bucket(bucketName)
-                    .key(s3Path)
-                    .build();
+    /**
+     * Opens a stream that uploads whatever is written to it to s3Path, switching to a parallel multipart upload
+     * once the data outgrows one part (cloudpdf.s3.partSize). Uploads run on uploadExecutor.
+     */
+    protected S3UploadStream openS3UploadStream(String s3Path, Executor uploadExecutor) {
+        return new S3UploadStream(s3Client, bucketName, s3Path, s3PartSize, s3PartsInFlight, uploadExecutor);
+    }
 
-            s3Client.putObject(putObjectRequest, RequestBody.fromBytes(stream.toByteArray()));
-            System.out.println("File uploaded to S3 at: " + s3Path);
-        } catch (S3Exception e) {
-            e.printStackTrace();
-            throw new RuntimeException("Failed to upload file to S3", e);
-        }
+    /**
+     * Server-side copy within the bucket; the object's bytes never pass through this machine.
+     */
+    protected void copyS3Object(String sourcePath, String targetPath) {
+        s3Client.copyObject(CopyObjectRequest.builder()
+                .sourceBucket(bucketName)
+                .sourceKey(sourcePath)
+                .destinationBucket(bucketName)
+                .destinationKey(targetPath)
+                .build());
+        System.out.println("File copied in S3 from: " + sourcePath + " to: " + targetPath);
+    }
+
+    protected InputStream openS3Object(String s3Path) {
+        return s3Client.getObject(GetObjectRequest.builder()
+                .bucket(bucketName)
+                .key(s3Path)
+                .build());
+    }
+
+    protected void deleteS3Object(String s3Path) {
+        s3Client.deleteObject(DeleteObjectRequest.builder()
+                .bucket(bucketName)
+                .key(s3Path)
+                .build());
     }
 
     protected String readFileFromS3(String s3Path) {
@@ -310,12 +350,28 @@ public abstract class AWS {
     }
 
     protected void sendMessageToQueue(String queueUrl, String message, String clientId) {
+        sendMessageToQueue(queueUrl, message, clientId, Map.of());
+    }
+
+    /**
+     * Sends a message carrying extra string attributes next to clientId. Empty values are left out, since SQS
+     * rejects them.
+     */
+    protected void sendMessageToQueue(String queueUrl, String message, String clientId, Map<String, String> attributes) {
         Map<String, MessageAttributeValue> messageAttributes = new HashMap<>();
         System.out.println("\n" + "Sending packet to queue for client:" + clientId + "\n" + message + "\n");
         messageAttributes.put("clientId", MessageAttributeValue.builder()
                 .dataType("String")
                 .stringValue(clientId)
                 .build());
+        attributes.forEach((name, value) -> {
+            if (!value.isEmpty()) {
+                messageAttributes.put(name, MessageAttributeValue.builder()
+                        .dataType("String")
+                        .stringValue(value)
+                        .build());
+            }
+        });
 
         SendMessageRequest send_msg_request = SendMessageRequest.builder()
                 .queueUrl(queueUrl)
@@ -326,6 +382,117 @@ public abstract class AWS {
         sqsClient.sendMessage(send_msg_request);
     }
 
+    /**
+     * Sends every message to the queue using SendMessageBatch calls of up to {@link #SQS_BATCH_SIZE} entries,
+     * keeping several batches in flight at once. Failed entries are retried with backoff.
+     *
+     * @return the number of messages that were accepted by SQS
+     */
+    protected int sendMessagesToQueueInBatches(String queueUrl, List<String> messages, String clientId) {
+        return sendMessagesToQueueInBatches(queueUrl, messages, clientId,
+                Collections.nCopies(messages.size(), Map.of())).size();
+    }
+
+    /**
+     * Like {@link #sendMessagesToQueueInBatches(String, List, String)}, with extra string attributes for each
+     * message next to clientId.
+     *
+     * @return the indexes of the messages that were accepted by SQS
+     */
+    protected Set<Integer> sendMessagesToQueueInBatches(String queueUrl, List<String> messages, String clientId,
+                                                        List<Map<String, String>> attributes) {
+        List<Future<List<Integer>>> batches = new ArrayList<>();
+        List<SendMessageBatchRequestEntry> batch = new ArrayList<>();
+        int batchBytes = 0;
+        for (int i = 0; i < messages.size(); i++) {
+            String message = messages.get(i);
+            Map<String, MessageAttributeValue> messageAttributes = new HashMap<>();
+            messageAttributes.put("clientId", MessageAttributeValue.builder()
+                    .dataType("String")
+                    .stringValue(clientId)
+                    .build());
+            // SQS counts the body and every attribute's name, type and value, in UTF-8 bytes
+            int messageBytes = utf8Length(message) + utf8Length("clientId") + utf8Length(clientId) + utf8Length("String");
+            for (Map.Entry<String, String> attribute : attributes.get(i).entrySet()) {
+                messageAttributes.put(attribute.getKey(), MessageAttributeValue.builder()
+                        .dataType("String")
+                        .stringValue(attribute.getValue())
+                        .build());
+                messageBytes += utf8Length(attribute.getKey()) + utf8Length(attribute.getValue()) + utf8Length("String");
+            }
+            if (batch.size() == SQS_BATCH_SIZE || (!batch.isEmpty() && batchBytes + messageBytes > SQS_BATCH_MAX_BYTES)) {
+                List<SendMessageBatchRequestEntry> fullBatch = batch;
+                batches.add(batchSenderExecutorService.submit(() -> sendBatchWithRetry(queueUrl, fullBatch)));
+                batch = new ArrayList<>();
+                batchBytes = 0;
+            }
+            batch.add(SendMessageBatchRequestEntry.builder()
+                    .id(String.valueOf(i))
+                    .messageBody(message)
+                    .messageAttributes(messageAttributes)
+                    .build());
+            batchBytes += messageBytes;
+        }
+        if (!batch.isEmpty()) {
+            List<SendMessageBatchRequestEntry> lastBatch = batch;
+            batches.add(batchSenderExecutorService.submit(() -> sendBatchWithRetry(queueUrl, lastBatch)));
+        }
+
+        Set<Integer> sent = new TreeSet<>();
+        for (Future<List<Integer>> future : batches) {
+            try {
+                sent.addAll(future.get());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new RuntimeException("Interrupted while sending message batches", e);
+            } catch (Exception e) {
+                e.printStackTrace();
+                System.err.println("Failed to send message batch to queue: " + queueUrl);
+            }
+        }
+        System.out.println("Sent " + sent.size() + "/" + messages.size() + " packets in " + batches.size() +
+                " batches to queue for client:" + clientId);
+        return sent;
+    }
+
+    private static int utf8Length(String text) {
+        return text.getBytes(StandardCharsets.UTF_8).length;
+    }
+
+    /**
+     * @return the indexes (entry IDs) of the entries that were sent
+     */
+    private List<Integer> sendBatchWithRetry(String queueUrl, List<SendMessageBatchRequestEntry> entries) throws InterruptedException {
+        Map<String, SendMessageBatchRequestEntry> pending = new LinkedHashMap<>();
+        entries.forEach(entry -> pending.put(entry.id(), entry));
+        List<Integer> sent = new ArrayList<>();
+
+        for (int attempt = 1; attempt <= SQS_BATCH_MAX_ATTEMPTS && !pending.isEmpty(); attempt++) {
+            if (attempt > 1) {
+                Thread.sleep(100L << attempt);
+            }
+            try {
+                SendMessageBatchResponse response = sqsClient.sendMessageBatch(SendMessageBatchRequest.builder()
+                        .queueUrl(queueUrl)
+                        .entries(pending.values())
+                        .build());
+                for (SendMessageBatchResultEntry success : response.successful()) {
+                    pending.remove(success.id());
+                    sent.add(Integer.parseInt(success.id()));
+                }
+                for (BatchResultErrorEntry failure : response.failed()) {
+                    System.err.println("Batch entry " + failure.id() + " failed (attempt " + attempt + "): " + failure.message());
+                    if (failure.senderFault()) {
+                        pending.remove(failure.id());
+                    }
+                }
+            } catch (SqsException e) {
+                System.err.println("SendMessageBatch failed (attempt " + attempt + "): " + e.getMessage());
+            }
+        }
+        return sent;
+    }
+
     protected Message receiveMessageFromQueue(String queueUrl, int waitTimeSeconds) {
         ReceiveMessageRequest request = ReceiveMessageRequest.builder()
                 .queueUrl(queueUrl)
@@ -346,6 +513,110 @@ public abstract class AWS {
         return receiveMessageFromQueue(queueUrl, 0);
     }
 
+    protected List<Message> receiveMessagesFromQueue(String queueUrl, int maxNumberOfMessages, int waitTimeSeconds) {
+        return receiveMessagesFromQueue(queueUrl, maxNumberOfMessages, waitTimeSeconds, null);
+    }
+
+    /**
+     * Receives messages that stay invisible to other consumers for visibilityTimeoutSeconds, or for the queue's
+     * default when it is null.
+     */
+    protected List<Message> receiveMessagesFromQueue(String queueUrl, int maxNumberOfMessages, int waitTimeSeconds,
+                                                     Integer visibilityTimeoutSeconds) {
+        ReceiveMessageRequest request = ReceiveMessageRequest.builder()
+                .queueUrl(queueUrl)
+                .maxNumberOfMessages(Math.min(maxNumberOfMessages, SQS_BATCH_SIZE))
+                .messageAttributeNames("All")
+                .waitTimeSeconds(waitTimeSeconds)
+                .visibilityTimeout(visibilityTimeoutSeconds)
+                .build();
+
+        return sqsClient.receiveMessage(request).messages();
+    }
+
+    public record QueueDepth(long queued, long inFlight) {
+    }
+
+    /**
+     * @return SQS's approximate counts of the messages waiting in the queue and of those received but not deleted
+     */
+    protected QueueDepth getQueueDepth(String queueUrl) {
+        Map<QueueAttributeName, String> attributes = sqsClient.getQueueAttributes(GetQueueAttributesRequest.builder()
+                .queueUrl(queueUrl)
+                .attributeNames(QueueAttributeName.APPROXIMATE_NUMBER_OF_MESSAGES,
+                        QueueAttributeName.APPROXIMATE_NUMBER_OF_MESSAGES_NOT_VISIBLE)
+                .build()).attributes();
+        return new QueueDepth(
+                Long.parseLong(attributes.getOrDefault(QueueAttributeName.APPROXIMATE_NUMBER_OF_MESSAGES, "0")),
+                Long.parseLong(attributes.getOrDefault(QueueAttributeName.APPROXIMATE_NUMBER_OF_MESSAGES_NOT_VISIBLE, "0")));
+    }
+
+    /**
+     * Sets the visibility timeout of received messages, counted from now, using ChangeMessageVisibilityBatch calls
+     * of up to {@link #SQS_BATCH_SIZE} entries. A timeout of 0 makes them visible to other consumers at once.
+     *
+     * @return the messages whose timeout could not be changed, typically because their receipt has expired
+     */
+    protected List<Message> changeMessageVisibility(String queueUrl, List<Message> messages, int timeoutSeconds) {
+        List<Message> failed = new ArrayList<>();
+        for (int from = 0; from < messages.size(); from += SQS_BATCH_SIZE) {
+            List<Message> batch = messages.subList(from, Math.min(from + SQS_BATCH_SIZE, messages.size()));
+            List<ChangeMessageVisibilityBatchRequestEntry> entries = new ArrayList<>();
+            for (int i = 0; i < batch.size(); i++) {
+                entries.add(ChangeMessageVisibilityBatchRequestEntry.builder()
+                        .id(String.valueOf(i))
+                        .receiptHandle(batch.get(i).receiptHandle())
+                        .visibilityTimeout(timeoutSeconds)
+                        .build());
+            }
+            try {
+                ChangeMessageVisibilityBatchResponse response = sqsClient.changeMessageVisibilityBatch(
+                        ChangeMessageVisibilityBatchRequest.builder()
+                                .queueUrl(queueUrl)
+                                .entries(entries)
+                                .build());
+                for (BatchResultErrorEntry failure : response.failed()) {
+                    System.err.println("Visibility change entry failed: " + failure.message());
+                    failed.add(batch.get(Integer.parseInt(failure.id())));
+                }
+            } catch (SqsException e) {
+                System.err.println("Failed to change message visibility: " + e.getMessage());
+                failed.addAll(batch);
+            }
+        }
+        return failed;
+    }
+
+    /**
+     * Deletes the messages using DeleteMessageBatch calls of up to {@link #SQS_BATCH_SIZE} entries.
+     * Entries that fail are retried once individually.
+     */
+    protected void deleteMessagesFromQueue(String queueUrl, List<Message> messages) {
+        for (int from = 0; from < messages.size(); from += SQS_BATCH_SIZE) {
+            List<Message> batch = messages.subList(from, Math.min(from + SQS_BATCH_SIZE, messages.size()));
+            List<DeleteMessageBatchRequestEntry> entries = new ArrayList<>();
+            for (int i = 0; i < batch.size(); i++) {
+                entries.add(DeleteMessageBatchRequestEntry.builder()
+                        .id(String.valueOf(i))
+                        .receiptHandle(batch.get(i).receiptHandle())
+                        .build());
+            }
+
+            DeleteMessageBatchResponse response = sqsClient.deleteMessageBatch(DeleteMessageBatchRequest.builder()
+                    .queueUrl(queueUrl)
+                    .entries(entries)
+                    .build());
+            for (BatchResultErrorEntry failure : response.failed()) {
+                System.err.println("Batch delete entry failed: " + failure.message());
+                try {
+                    deleteMessageFromQueue(queueUrl, batch.get(Integer.parseInt(failure.id())));
+                } catch (SqsException e) {
+                    System.err.println("Failed to delete message from queue: " + e.getMessage());
+                }
+            }
+        }
+    }
+
     protected void deleteMessageFromQueue(String queueUrl, Message message) {
         DeleteMessageRequest deleteRequest = DeleteMessageRequest.builder()
                 .queueUrl(queueUrl)
@@ -0,0 +1,90 @@
+package org.CloudPDF;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Sizes the fleet so that each worker holds about targetMinutes of work. A worker's throughput (packets per minute)
+ * is an exponentially weighted moving average measured at every tick that started with at least one packet for each
+ * worker that has finished booting, so workers that sat idle for lack of work do not drag it down; until the first
+ * measurement defaultPacketsPerMinute is assumed.
+ * Scale-out only happens when the outstanding work would take the current fleet longer than an instance takes to
+ * boot, and at most once per scaleOutCooldown. Scale-in waits for scaleInCooldown after any change and only happens
+ * when the fleet would still be too big with scaleInFactor times the target work per worker, so the fleet does not
+ * flap around the threshold.
+ */
+public class BacklogScalingPolicy implements ScalingPolicy {
+    private static final double ALPHA = 0.3;
+
+    private final double targetMinutes;
+    private final long bootMillis;
+    private final double scaleInFactor;
+    private final long scaleOutCooldownMillis;
+    private final long scaleInCooldownMillis;
+
+    private double packetsPerWorkerMinute;
+    private long lastTickMillis = -1;
+    private long lastOutstanding = 0;
+    private long lastScaleOutMillis = Long.MIN_VALUE / 2;
+    private long lastScaleInMillis = Long.MIN_VALUE / 2;
+
+    public BacklogScalingPolicy(double targetMinutes, long bootMillis, double defaultPacketsPerMinute,
+                                double scaleInFactor, long scaleOutCooldownMillis, long scaleInCooldownMillis) {
+        this.targetMinutes = targetMinutes;
+        this.bootMillis = bootMillis;
+        this.packetsPerWorkerMinute = defaultPacketsPerMinute;
+        this.scaleInFactor = Math.max(1, scaleInFactor);
+        this.scaleOutCooldownMillis = scaleOutCooldownMillis;
+        this.scaleInCooldownMillis = scaleInCooldownMillis;
+    }
+
+    public static BacklogScalingPolicy fromSystemProperties() {
+        return new BacklogScalingPolicy(
+                Double.parseDouble(System.getProperty("cloudpdf.scaling.targetMinutes", "5")),
+                TimeUnit.SECONDS.toMillis(Long.getLong("cloudpdf.scaling.bootSeconds", 60)),
+                Double.parseDouble(System.getProperty("cloudpdf.scaling.defaultPacketsPerMinute", "2")),
+                Double.parseDouble(System.getProperty("cloudpdf.scaling.scaleInFactor", "2")),
+                TimeUnit.SECONDS.toMillis(Long.getLong("cloudpdf.scaling.scaleOutCooldownSeconds", 60)),
+                TimeUnit.SECONDS.toMillis(Long.getLong("cloudpdf.scaling.scaleInCooldownSeconds", 300)));
+    }
+
+    @Override
+    public synchronized int desiredWorkers(Inputs inputs) {
+        long now = inputs.nowMillis();
+        // Workers that never reported may still have done the work, e.g. when status reports are off
+        int busyWorkers = inputs.readyWorkers() > 0 || inputs.completedPackets() == 0
+                ? inputs.readyWorkers()
+                : inputs.workers();
+        if (lastTickMillis >= 0 && busyWorkers > 0 && lastOutstanding >= busyWorkers && now > lastTickMillis) {
+            double minutes = (now - lastTickMillis) / 60_000.0;
+            double sample = inputs.completedPackets() / minutes / busyWorkers;
+            packetsPerWorkerMinute = (1 - ALPHA) * packetsPerWorkerMinute + ALPHA * sample;
+        }
+        lastTickMillis = now;
+        lastOutstanding = inputs.outstandingPackets();
+
+        int workers = inputs.workers();
+        long outstanding = inputs.outstandingPackets();
+        double throughput = Math.max(packetsPerWorkerMinute, 0.01);
+        double packetsPerWorker = Math.max(1, throughput * targetMinutes);
+        int scaleOutTarget = (int) Math.ceil(outstanding / packetsPerWorker);
+        int scaleInTarget = (int) Math.ceil(outstanding / (packetsPerWorker * scaleInFactor));
+
+        if (scaleOutTarget > workers && now - lastScaleOutMillis >= scaleOutCooldownMillis) {
+            // Another instance only helps if the work outlasts its boot
+            double drainMillis = workers == 0 ? Double.MAX_VALUE : outstanding / (throughput * workers) * 60_000;
+            if (drainMillis > bootMillis) {
+                lastScaleOutMillis = now;
+                return scaleOutTarget;
+            }
+        } else if (scaleInTarget < workers && now - lastScaleOutMillis >= scaleInCooldownMillis
+                && now - lastScaleInMillis >= scaleInCooldownMillis) {
+            lastScaleInMillis = now;
+            return scaleInTarget;
+        }
+        return workers;
+    }
+
+    public synchronized double packetsPerWorkerMinute() {
+        return packetsPerWorkerMinute;
+    }
+}
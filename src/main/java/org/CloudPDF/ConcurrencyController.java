@@ -0,0 +1,179 @@
+package org.CloudPDF;
+
+import javax.management.ObjectName;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.lang.management.MemoryUsage;
+import java.lang.management.OperatingSystemMXBean;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * AIMD limit on how many tasks a worker runs at once. The limit grows by one while the worker is saturated and
+ * the CPU has room, and is halved when the live heap runs out of headroom or GC starts eating the interval.
+ * The current limit is logged on every change and published over JMX as org.CloudPDF:type=ConcurrencyController.
+ */
+public class ConcurrencyController implements ConcurrencyControllerMXBean {
+
+    private static final double MAX_HEAP_USED_RATIO = 0.85;
+    private static final double MAX_GC_TIME_RATIO = 0.10;
+    private static final double MAX_CPU_LOAD = 0.90;
+
+    private final int minLimit;
+    private final int maxLimit;
+    private final long sampleIntervalMillis;
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition slotFreed = lock.newCondition();
+    private final ScheduledExecutorService sampler =
+            Executors.newSingleThreadScheduledExecutor(DaemonThreads.named("concurrency-controller"));
+
+    private int limit;
+    private int inFlight = 0;
+    private boolean saturated = false;
+    private long lastGcTimeMillis = totalGcTimeMillis();
+    private volatile double heapUsedRatio;
+    private volatile double gcTimeRatio;
+    private volatile double cpuLoad;
+
+    public ConcurrencyController(int initialLimit, int minLimit, int maxLimit, long sampleIntervalMillis) {
+        this.minLimit = minLimit;
+        this.maxLimit = maxLimit;
+        this.limit = Math.max(minLimit, Math.min(initialLimit, maxLimit));
+        this.sampleIntervalMillis = sampleIntervalMillis;
+    }
+
+    public void start() {
+        try {
+            ManagementFactory.getPlatformMBeanServer()
+                    .registerMBean(this, new ObjectName("org.CloudPDF:type=ConcurrencyController"));
+        } catch (Exception e) {
+            System.err.println("Failed to register concurrency controller MBean: " + e.getMessage());
+        }
+        sampler.scheduleAtFixedRate(this::adjust, sampleIntervalMillis, sampleIntervalMillis, TimeUnit.MILLISECONDS);
+        System.out.println("Concurrency limit: " + limit + " (min " + minLimit + ", max " + maxLimit + ")");
+    }
+
+    public void acquire() throws InterruptedException {
+        lock.lock();
+        try {
+            while (inFlight >= limit) {
+                saturated = true;
+                slotFreed.await();
+            }
+            inFlight++;
+            if (inFlight == limit) {
+                saturated = true;
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public void release() {
+        lock.lock();
+        try {
+            inFlight--;
+            slotFreed.signal();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void adjust() {
+        try {
+            sample();
+            lock.lock();
+            try {
+                int previousLimit = limit;
+                if (heapUsedRatio > MAX_HEAP_USED_RATIO || gcTimeRatio > MAX_GC_TIME_RATIO) {
+                    limit = Math.max(minLimit, limit / 2);
+                } else if (saturated && cpuLoad < MAX_CPU_LOAD) {
+                    limit = Math.min(maxLimit, limit + 1);
+                }
+                saturated = inFlight >= limit;
+
+                if (limit != previousLimit) {
+                    slotFreed.signalAll();
+                    System.out.printf("Concurrency limit: %d -> %d (heap %.0f%%, gc %.0f%%, cpu %.0f%%)%n",
+                            previousLimit, limit, heapUsedRatio * 100, gcTimeRatio * 100, cpuLoad * 100);
+                }
+            } finally {
+                lock.unlock();
+            }
+        } catch (RuntimeException e) {
+            System.err.println("Failed to adjust concurrency limit: " + e.getMessage());
+        }
+    }
+
+    private void sample() {
+        // Usage measured right after the last collection is the live set; raw usage also counts garbage
+        MemoryUsage heap = ManagementFactory.getMemoryMXBean().getHeapMemoryUsage();
+        long maxHeap = heap.getMax() > 0 ? heap.getMax() : heap.getCommitted();
+        long liveBytes = 0;
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            if (pool.getType() == MemoryType.HEAP && pool.getCollectionUsage() != null) {
+                liveBytes += pool.getCollectionUsage().getUsed();
+            }
+        }
+        heapUsedRatio = (double) (liveBytes > 0 ? liveBytes : heap.getUsed()) / maxHeap;
+
+        long gcTimeMillis = totalGcTimeMillis();
+        gcTimeRatio = (double) (gcTimeMillis - lastGcTimeMillis) / sampleIntervalMillis;
+        lastGcTimeMillis = gcTimeMillis;
+
+        OperatingSystemMXBean os = ManagementFactory.getOperatingSystemMXBean();
+        if (os instanceof com.sun.management.OperatingSystemMXBean sunOs && sunOs.getCpuLoad() >= 0) {
+            cpuLoad = sunOs.getCpuLoad();
+        } else {
+            cpuLoad = Math.max(0, os.getSystemLoadAverage()) / os.getAvailableProcessors();
+        }
+    }
+
+    private static long totalGcTimeMillis() {
+        long total = 0;
+        for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+            total += Math.max(0, gc.getCollectionTime());
+        }
+        return total;
+    }
+
+    @Override
+    public int getLimit() {
+        lock.lock();
+        try {
+            return limit;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public int getInFlight() {
+        lock.lock();
+        try {
+            return inFlight;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public double getHeapUsedRatio() {
+        return heapUsedRatio;
+    }
+
+    @Override
+    public double getGcTimeRatio() {
+        return gcTimeRatio;
+    }
+
+    @Override
+    public double getCpuLoad() {
+        return cpuLoad;
+    }
+}
@@ -0,0 +1,13 @@
+package org.CloudPDF;
+
+public interface ConcurrencyControllerMXBean {
+    int getLimit();
+
+    int getInFlight();
+
+    double getHeapUsedRatio();
+
+    double getGcTimeRatio();
+
+    double getCpuLoad();
+}
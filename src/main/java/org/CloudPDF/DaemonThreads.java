@@ -0,0 +1,22 @@
+package org.CloudPDF;
+
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Thread factory for the background pools, whose threads must not keep the JVM alive once the main loop exits.
+ */
+public final class DaemonThreads {
+    private DaemonThreads() {
+    }
+
+    /**
+     * @return a factory of daemon threads that all carry the given name
+     */
+    public static ThreadFactory named(String name) {
+        return runnable -> {
+            Thread thread = new Thread(runnable, name);
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+}
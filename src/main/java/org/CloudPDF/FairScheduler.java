@@ -0,0 +1,159 @@
+package org.CloudPDF;
+
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.*;
+
+/**
+ * Holds every client's packets in the Manager and hands them to the worker queues round-robin across clients.
+ * At most maxInFlight packets are queued or running at once, and at most maxClientInFlight of them belong to one
+ * client. A client that arrives behind a large job gets its turn at the next free slot instead of waiting for the
+ * whole job, so a small job finishes in a time bounded by its own size and the number of active clients.
+ * The backlog and in-flight counts are published over JMX as org.CloudPDF:type=FairScheduler.
+ */
+public class FairScheduler implements FairSchedulerMXBean {
+
+    @FunctionalInterface
+    public interface PacketSender {
+        /**
+         * Queues packets of one client on a lane.
+         *
+         * @return how many of them were queued
+         */
+        int send(String clientId, TaskLane lane, List<String> packets);
+    }
+
+    private record Packet(TaskLane lane, String body) {
+    }
+
+    private final int maxInFlight;
+    private final int maxClientInFlight;
+    private final PacketSender sender;
+    private final Map<String, Deque<Packet>> backlogs = new HashMap<>();
+    private final Map<String, Integer> clientInFlight = new HashMap<>();
+    // Clients with a backlog, in the order of their next turn
+    private final Deque<String> turns = new ArrayDeque<>();
+    private long backlog = 0;
+    private int inFlight = 0;
+
+    public FairScheduler(int maxInFlight, int maxClientInFlight, PacketSender sender) {
+        this.maxInFlight = Math.max(1, maxInFlight);
+        this.maxClientInFlight = Math.max(1, maxClientInFlight);
+        this.sender = sender;
+    }
+
+    public void start() {
+        try {
+            ManagementFactory.getPlatformMBeanServer()
+                    .registerMBean(this, new ObjectName("org.CloudPDF:type=FairScheduler"));
+        } catch (Exception e) {
+            System.err.println("Failed to register fair scheduler MBean: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Adds a client's packets to its backlog and releases whatever the limits allow.
+     */
+    public void submit(String clientId, Map<TaskLane, List<String>> lanePackets) {
+        synchronized (this) {
+            Deque<Packet> clientBacklog = backlogs.get(clientId);
+            if (clientBacklog == null) {
+                clientBacklog = new ArrayDeque<>();
+                backlogs.put(clientId, clientBacklog);
+                turns.add(clientId);
+            }
+            // Lanes are interleaved, so workers of every lane get a share of the client's turns
+            int longest = lanePackets.values().stream().mapToInt(List::size).max().orElse(0);
+            for (int i = 0; i < longest; i++) {
+                for (Map.Entry<TaskLane, List<String>> packets : lanePackets.entrySet()) {
+                    if (i < packets.getValue().size()) {
+                        clientBacklog.add(new Packet(packets.getKey(), packets.getValue().get(i)));
+                        backlog++;
+                    }
+                }
+            }
+        }
+        release();
+    }
+
+    /**
+     * Frees the slots of finished packets, one client ID per packet, and releases more packets into them.
+     */
+    public void complete(List<String> clientIds) {
+        synchronized (this) {
+            clientIds.forEach(this::free);
+        }
+        release();
+    }
+
+    private void release() {
+        Map<String, Map<TaskLane, List<String>>> released = new LinkedHashMap<>();
+        synchronized (this) {
+            int skipped = 0;
+            while (inFlight < maxInFlight && skipped < turns.size()) {
+                String clientId = turns.poll();
+                if (clientInFlight.getOrDefault(clientId, 0) >= maxClientInFlight) {
+                    turns.add(clientId);
+                    skipped++;
+                    continue;
+                }
+                skipped = 0;
+                Deque<Packet> clientBacklog = backlogs.get(clientId);
+                Packet packet = clientBacklog.poll();
+                backlog--;
+                inFlight++;
+                clientInFlight.merge(clientId, 1, Integer::sum);
+                released.computeIfAbsent(clientId, id -> new EnumMap<>(TaskLane.class))
+                        .computeIfAbsent(packet.lane(), lane -> new ArrayList<>())
+                        .add(packet.body());
+                if (clientBacklog.isEmpty()) {
+                    backlogs.remove(clientId);
+                } else {
+                    turns.add(clientId);
+                }
+            }
+        }
+
+        // Sent outside the lock, so finished packets can be recorded while a batch is on its way
+        released.forEach((clientId, lanePackets) -> lanePackets.forEach((lane, packets) -> {
+            int sent = 0;
+            try {
+                sent = sender.send(clientId, lane, packets);
+            } catch (RuntimeException e) {
+                System.err.println("Failed to send " + packets.size() + " " + lane + " packets of client " + clientId
+                        + ": " + e.getMessage());
+            }
+            int lost = packets.size() - sent;
+            if (lost > 0) {
+                synchronized (this) {
+                    for (int i = 0; i < lost; i++) {
+                        free(clientId);
+                    }
+                }
+            }
+        }));
+    }
+
+    // A client without packets in flight is ignored, so a duplicate result cannot free someone else's slot
+    private void free(String clientId) {
+        if (clientInFlight.containsKey(clientId)) {
+            clientInFlight.computeIfPresent(clientId, (id, count) -> count > 1 ? count - 1 : null);
+            inFlight--;
+        }
+    }
+
+    @Override
+    public synchronized long getBacklog() {
+        return backlog;
+    }
+
+    @Override
+    public synchronized int getInFlight() {
+        return inFlight;
+    }
+
+    @Override
+    public synchronized int getActiveClients() {
+        return turns.size();
+    }
+}
@@ -0,0 +1,9 @@
+package org.CloudPDF;
+
+public interface FairSchedulerMXBean {
+    long getBacklog();
+
+    int getInFlight();
+
+    int getActiveClients();
+}
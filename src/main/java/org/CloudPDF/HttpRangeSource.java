@@ -0,0 +1,174 @@
+package org.CloudPDF;
+
+import org.apache.pdfbox.io.RandomAccessRead;
+import org.apache.pdfbox.io.RandomAccessReadView;
+
+import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Random-access view of a remote PDF that PDFBox can parse directly. Bytes are fetched with HTTP Range requests
+ * one block at a time and kept in a small LRU block cache. PDFBox resolves objects lazily, so opening a document
+ * and reading its first page only pulls the header, the trailer and xref, the page tree and the objects of that
+ * page.
+ */
+public class HttpRangeSource implements RandomAccessRead {
+    private final PdfFetcher pdfFetcher;
+    private final String pdfUrl;
+    private final String validator;
+    private final long length;
+    private final int blockSize;
+    private final LinkedHashMap<Long, byte[]> blocks;
+    private long position = 0;
+    private long bytesFetched = 0;
+    private long fetchNanos = 0;
+    private boolean closed = false;
+
+    HttpRangeSource(PdfFetcher pdfFetcher, String pdfUrl, String validator, long length, byte[] firstBlock,
+                    int blockSize, int maxCachedBlocks) {
+        this.pdfFetcher = pdfFetcher;
+        this.pdfUrl = pdfUrl;
+        this.validator = validator;
+        this.length = length;
+        this.blockSize = blockSize;
+        this.blocks = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Long, byte[]> eldest) {
+                return size() > maxCachedBlocks;
+            }
+        };
+        blocks.put(0L, firstBlock);
+        bytesFetched = firstBlock.length;
+    }
+
+    /**
+     * @return the strong ETag or Last-Modified value the document was opened with, or null if it had neither
+     */
+    public String validator() {
+        return validator;
+    }
+
+    /**
+     * @return the bytes pulled from the server so far, the first block included
+     */
+    public long bytesFetched() {
+        return bytesFetched;
+    }
+
+    /**
+     * @return the time spent waiting on block requests after the first block, in milliseconds
+     */
+    public long fetchMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(fetchNanos);
+    }
+
+    private byte[] block(long index) throws IOException {
+        byte[] block = blocks.get(index);
+        if (block == null) {
+            long start = index * blockSize;
+            long end = Math.min(start + blockSize, length) - 1;
+            long startNanos = System.nanoTime();
+            block = pdfFetcher.fetchRange(pdfUrl, start, end, validator);
+            fetchNanos += System.nanoTime() - startNanos;
+            bytesFetched += block.length;
+            blocks.put(index, block);
+        }
+        return block;
+    }
+
+    @Override
+    public int read() throws IOException {
+        if (isEOF()) {
+            return -1;
+        }
+        byte[] block = block(position / blockSize);
+        return block[(int) (position++ % blockSize)] & 0xff;
+    }
+
+    @Override
+    public int read(byte[] b) throws IOException {
+        return read(b, 0, b.length);
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        if (isEOF()) {
+            return -1;
+        }
+        int total = 0;
+        while (len > 0 && !isEOF()) {
+            byte[] block = block(position / blockSize);
+            int offsetInBlock = (int) (position % blockSize);
+            int chunk = Math.min(len, block.length - offsetInBlock);
+            System.arraycopy(block, offsetInBlock, b, off, chunk);
+            position += chunk;
+            off += chunk;
+            len -= chunk;
+            total += chunk;
+        }
+        return total;
+    }
+
+    @Override
+    public long getPosition() {
+        return position;
+    }
+
+    @Override
+    public void seek(long newPosition) throws IOException {
+        if (newPosition < 0) {
+            throw new IOException("Invalid position: " + newPosition);
+        }
+        position = Math.min(newPosition, length);
+    }
+
+    @Override
+    public long length() {
+        return length;
+    }
+
+    @Override
+    public boolean isClosed() {
+        return closed;
+    }
+
+    @Override
+    public int peek() throws IOException {
+        int result = read();
+        if (result != -1) {
+            position--;
+        }
+        return result;
+    }
+
+    @Override
+    public void rewind(int bytes) throws IOException {
+        seek(position - bytes);
+    }
+
+    @Override
+    public boolean isEOF() {
+        return position >= length;
+    }
+
+    @Override
+    public int available() {
+        return (int) Math.min(length - position, Integer.MAX_VALUE);
+    }
+
+    @Override
+    public RandomAccessReadView createView(long startPosition, long streamLength) {
+        return new RandomAccessReadView(this, startPosition, streamLength);
+    }
+
+    @Override
+    public void close() {
+        if (!closed) {
+            closed = true;
+            blocks.clear();
+            System.out.println("Range-loaded " + bytesFetched + " of " + length + " bytes from " + pdfUrl);
+        }
+    }
+}
@@ -0,0 +1,144 @@
+package org.CloudPDF;
+
+import org.apache.pdfbox.pdmodel.PDDocument;
+import org.apache.pdfbox.pdmodel.PDPage;
+import org.apache.pdfbox.pdmodel.common.PDRectangle;
+import org.apache.pdfbox.rendering.ImageType;
+import org.apache.pdfbox.rendering.PDFRenderer;
+
+import javax.imageio.IIOImage;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageWriteParam;
+import javax.imageio.ImageWriter;
+import javax.imageio.stream.ImageOutputStream;
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Locale;
+
+/**
+ * Renders one page of a document to PNG or JPEG.
+ * The scale comes from the DPI, capped so that neither side exceeds maxDimension pixels; in thumbnail mode the
+ * longest side is thumbnailSize pixels instead. Pages can be rendered in grayscale (1 byte per pixel instead of 4).
+ * A PNG whose raster would exceed maxRasterBytes (by default 64 MiB, above a Letter, A4 or Legal page at 300 DPI) is
+ * rendered in horizontal bands of bandHeight rows, each band streamed through {@link PngEncoder} before the next is
+ * drawn, so memory stays bounded at the cost of replaying the page once per band. JPEG output is always rendered in one piece, because ImageIO needs the whole raster.
+ */
+public class ImageRenderer {
+
+    public enum Format {PNG, JPEG}
+
+    private final float dpi;
+    private final int maxDimension;
+    private final int thumbnailSize;
+    private final boolean grayscale;
+    private final Format format;
+    private final float jpegQuality;
+    private final int pngCompressionLevel;
+    private final int bandHeight;
+    private final long maxRasterBytes;
+
+    public ImageRenderer(float dpi, int maxDimension, int thumbnailSize, boolean grayscale, Format format,
+                         float jpegQuality, int pngCompressionLevel, int bandHeight, long maxRasterBytes) {
+        this.dpi = dpi;
+        this.maxDimension = maxDimension;
+        this.thumbnailSize = thumbnailSize;
+        this.grayscale = grayscale;
+        this.format = format;
+        this.jpegQuality = jpegQuality;
+        this.pngCompressionLevel = pngCompressionLevel;
+        this.bandHeight = bandHeight;
+        this.maxRasterBytes = maxRasterBytes;
+    }
+
+    public static ImageRenderer fromSystemProperties() {
+        return new ImageRenderer(
+                Float.parseFloat(System.getProperty("cloudpdf.image.dpi", "300")),
+                Integer.getInteger("cloudpdf.image.maxDimension", 10_000),
+                Integer.getInteger("cloudpdf.image.thumbnailSize", 0),
+                System.getProperty("cloudpdf.image.color", "rgb").equalsIgnoreCase("gray"),
+                Format.valueOf(System.getProperty("cloudpdf.image.format", "png").toUpperCase(Locale.ROOT)),
+                Float.parseFloat(System.getProperty("cloudpdf.image.jpegQuality", "0.85")),
+                Integer.getInteger("cloudpdf.image.pngCompression", 4),
+                Integer.getInteger("cloudpdf.image.bandHeight", 512),
+                Long.getLong("cloudpdf.image.maxRasterBytes", 64L * 1024 * 1024));
+    }
+
+    public String fileExtension() {
+        return format == Format.JPEG ? ".jpg" : ".png";
+    }
+
+    /**
+     * Describes the settings that change the output, so artifacts rendered with different settings are told apart.
+     */
+    public String settings() {
+        return format + (format == Format.JPEG ? "@" + jpegQuality : "") + (grayscale ? " gray" : " rgb") +
+                (thumbnailSize > 0 ? " thumbnail " + thumbnailSize : " " + dpi + "dpi max " + maxDimension);
+    }
+
+    public void render(PDDocument document, int pageIndex, OutputStream outputStream) throws IOException {
+        PDPage page = document.getPage(pageIndex);
+        PDRectangle cropBox = page.getCropBox();
+        boolean rotated = page.getRotation() % 180 != 0;
+        float pageWidth = rotated ? cropBox.getHeight() : cropBox.getWidth();
+        float pageHeight = rotated ? cropBox.getWidth() : cropBox.getHeight();
+        float scale = scale(pageWidth, pageHeight);
+        // Same rounding as PDFRenderer.renderImage
+        int width = (int) Math.max(Math.floor(pageWidth * scale), 1);
+        int height = (int) Math.max(Math.floor(pageHeight * scale), 1);
+
+        PDFRenderer renderer = new PDFRenderer(document);
+        if (format == Format.JPEG) {
+            writeJpeg(renderer.renderImage(pageIndex, scale, grayscale ? ImageType.GRAY : ImageType.RGB), outputStream);
+            return;
+        }
+
+        try (PngEncoder pngEncoder = new PngEncoder(outputStream, width, height, grayscale, pngCompressionLevel)) {
+            if ((long) width * height * (grayscale ? 1 : 4) <= maxRasterBytes) {
+                pngEncoder.writeRows(renderer.renderImage(pageIndex, scale, grayscale ? ImageType.GRAY : ImageType.RGB), height);
+            } else {
+                BufferedImage band = new BufferedImage(width, Math.min(bandHeight, height),
+                        grayscale ? BufferedImage.TYPE_BYTE_GRAY : BufferedImage.TYPE_INT_RGB);
+                for (int top = 0; top < height; top += band.getHeight()) {
+                    int rows = Math.min(band.getHeight(), height - top);
+                    Graphics2D graphics = band.createGraphics();
+                    try {
+                        graphics.setBackground(Color.WHITE);
+                        graphics.clearRect(0, 0, width, band.getHeight());
+                        graphics.clip(new Rectangle(0, 0, width, rows));
+                        graphics.translate(0, -top);
+                        renderer.renderPageToGraphics(pageIndex, graphics, scale, scale);
+                    } finally {
+                        graphics.dispose();
+                    }
+                    pngEncoder.writeRows(band, rows);
+                }
+            }
+            pngEncoder.finish();
+        }
+    }
+
+    private float scale(float pageWidth, float pageHeight) {
+        float longestSide = Math.max(pageWidth, pageHeight);
+        if (thumbnailSize > 0) {
+            return thumbnailSize / longestSide;
+        }
+        return Math.min(dpi / 72f, maxDimension / longestSide);
+    }
+
+    private void writeJpeg(BufferedImage image, OutputStream outputStream) throws IOException {
+        ImageWriter writer = ImageIO.getImageWritersByFormatName("jpeg").next();
+        try (ImageOutputStream imageOutputStream = ImageIO.createImageOutputStream(outputStream)) {
+            ImageWriteParam param = writer.getDefaultWriteParam();
+            param.setCompressionMode(ImageWriteParam.MODE_EXPLICIT);
+            param.setCompressionQuality(jpegQuality);
+            writer.setOutput(imageOutputStream);
+            writer.write(null, new IIOImage(image, null, null), param);
+        } finally {
+            writer.dispose();
+        }
+    }
+}
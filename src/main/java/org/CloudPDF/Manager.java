@@ -1,10 +1,24 @@
 package org.CloudPDF;
 
 import software.amazon.awssdk.services.sqs.model.Message;
-
+import software.amazon.awssdk.services.sqs.model.MessageAttributeValue;
+import software.amazon.awssdk.services.sqs.model.SqsException;
+
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
 import java.util.concurrent.*;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.concurrent.atomic.AtomicReference;
+import java.util.zip.Deflater;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+import java.util.zip.ZipOutputStream;
 
 public class Manager extends AWS {
     private final AtomicReference<Integer> globalPacketsCounter = new AtomicReference<>(0);
@@ -12,22 +26,49 @@ public class Manager extends AWS {
     protected final Object lock = new Object();
     private int workerCount = 0;
     private final int tasksPerWorker;
+    private final PacketPacker packetPacker;
+    private final PdfFetcher pdfFetcher = PdfFetcher.fromSystemProperties();
+    private final PageSplitter pageSplitter = new PageSplitter(pdfFetcher,
+            Integer.getInteger("cloudpdf.manager.pagesPerPart", 20));
+    private final TaskCostEstimator taskCostEstimator = new TaskCostEstimator(pdfFetcher,
+            Long.getLong("cloudpdf.manager.headTimeoutMillis", 5_000));
     private final ConcurrentHashMap<String, Integer> clientMessages = new ConcurrentHashMap<>();
     private final ConcurrentHashMap<String, StringBuilder> clientDoneMessages = new ConcurrentHashMap<>();
     private final ExecutorService workerExecutorService = Executors.newFixedThreadPool(10);
-    private final ExecutorService clientExecutorService = Executors.newFixedThreadPool(10);
+    private static final int CLIENT_WAIT_TIME_SECONDS = 20;
+    private final int maxClientTasksInFlight = Integer.getInteger("cloudpdf.manager.maxClientTasks", 10);
+    private final Semaphore clientTaskPermits = new Semaphore(maxClientTasksInFlight);
+    private final ExecutorService clientExecutorService = Executors.newFixedThreadPool(maxClientTasksInFlight);
     private final CopyOnWriteArrayList<String> workersList = new CopyOnWriteArrayList<>();
 
+    private final FairScheduler fairScheduler = new FairScheduler(
+            Integer.getInteger("cloudpdf.manager.maxPacketsInFlight", 100),
+            Integer.getInteger("cloudpdf.manager.maxClientPacketsInFlight", 100),
+            this::queuePackets);
+    private final PacketTracker packetTracker = new PacketTracker(
+            Double.parseDouble(System.getProperty("cloudpdf.manager.speculateRemainingFraction", "0.1")),
+            Double.parseDouble(System.getProperty("cloudpdf.manager.speculateSlowFactor", "2.0")),
+            TimeUnit.SECONDS.toMillis(Long.getLong("cloudpdf.manager.speculateMinSeconds", 60)));
+    private final WorkerRegistry workerRegistry = new WorkerRegistry();
+    private final long drainTimeoutMillis = TimeUnit.SECONDS.toMillis(Long.getLong("cloudpdf.manager.drainTimeoutSeconds", 900));
+    private final ScalingPolicy scalingPolicy = ScalingPolicy.fromSystemProperties();
+    private final int scalingTickSeconds = Integer.getInteger("cloudpdf.scaling.tickSeconds", 15);
+    private final AtomicLong completedPackets = new AtomicLong();
+    private final ScheduledExecutorService scaler =
+            Executors.newSingleThreadScheduledExecutor(DaemonThreads.named("worker-scaler"));
+    private final String workerLanes = System.getProperty("cloudpdf.manager.workerLanes", "all");
     String WorkerScript = generateWorkerScript();
 
     public Manager(int tasksPerWorker) {
         this.tasksPerWorker = tasksPerWorker;
+        this.packetPacker = PacketPacker.fromSystemProperties(tasksPerWorker, taskCostEstimator);
         connectAWS();
         System.out.println("Manager is initialized...");
     }
 
     public Manager(int tasksPerWorker, boolean debug) {
         this.tasksPerWorker = tasksPerWorker;
+        this.packetPacker = PacketPacker.fromSystemProperties(tasksPerWorker, taskCostEstimator);
         if (!debug) {
             connectAWS();
         }
@@ -35,14 +76,30 @@ public class Manager extends AWS {
 
     public void run() {
         System.out.println("org.CloudPDF.Manager is running...");
+        fairScheduler.start();
+        scaler.scheduleWithFixedDelay(this::scaleWorkers, scalingTickSeconds, scalingTickSeconds, TimeUnit.SECONDS);
 
         Thread workerListenerThread = new Thread(this::readMessagesFromWorkers);
         workerListenerThread.start();
+        Thread workerStatusThread = new Thread(this::readWorkerStatus);
+        workerStatusThread.setDaemon(true);
+        workerStatusThread.start();
         while (!getIsTerminating()) {
-            Message clientMessage = receiveMessageFromQueue(client2managerUrl);
-            if (clientMessage != null) {
+            int permits = acquireClientTaskPermits();
+            if (permits == 0) {
+                break;
+            }
+            List<Message> clientRequests = receiveMessagesFromQueue(client2managerUrl, permits, CLIENT_WAIT_TIME_SECONDS);
+            clientTaskPermits.release(permits - clientRequests.size());
+            for (Message clientMessage : clientRequests) {
                 System.out.println("Received message");
-                clientExecutorService.submit(() -> handleClientMessage(clientMessage));
+                clientExecutorService.submit(() -> {
+                    try {
+                        handleClientMessage(clientMessage);
+                    } finally {
+                        clientTaskPermits.release();
+                    }
+                });
             }
         }
         try {
@@ -54,6 +111,27 @@ public class Manager extends AWS {
         }
     }
 
+    /**
+     * Blocks until at least one client task slot is free, then takes up to a full receive batch of free slots.
+     * Client requests are only pulled from SQS when there is a slot to run them, so a burst stays in the queue.
+     *
+     * @return the number of slots taken, or 0 if interrupted
+     */
+    private int acquireClientTaskPermits() {
+        try {
+            clientTaskPermits.acquire();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return 0;
+        }
+        int permits = 1 + clientTaskPermits.drainPermits();
+        if (permits > SQS_BATCH_SIZE) {
+            clientTaskPermits.release(permits - SQS_BATCH_SIZE);
+            permits = SQS_BATCH_SIZE;
+        }
+        return permits;
+    }
+
     private String generateWorkerScript() {
         String JAR_LOCAL_DIR = "/home/ec2-user/WorkerFiles";
         String JAR_LOCAL_PATH = "/home/ec2-user/WorkerFiles/fatWorker.jar";
@@ -65,55 +143,225 @@ public class Manager extends AWS {
                 "exec > >(tee /var/log/worker-script.log | logger -t worker-script -s 2>/dev/console) 2>&1\n" +
                 "mkdir -p " + JAR_LOCAL_DIR + "\n" +
                 "aws s3 cp s3://" + S3_BUCKET_NAME + "/" + JAR_S3_PATH + " " + JAR_LOCAL_PATH + " --region " + REGION + "\n" +
-                "java -jar " + JAR_LOCAL_PATH + "\n";
+                "java -Dcloudpdf.worker.lanes=" + workerLanes + " -jar " + JAR_LOCAL_PATH + "\n";
     }
 
     private void readMessagesFromWorkers() {
         while ((getGlobalPacketsCounter() > 0) || (getGlobalPacketsCounter() == 0 && !getIsTerminating())) {
-            Message workerMessage = receiveMessageFromQueue(workers2managerUrl, 5);
-            if (workerMessage != null) {
-                workerExecutorService.submit(() -> handleWorkerMessage(workerMessage));
+            List<Message> workerMessages = receiveMessagesFromQueue(workers2managerUrl, SQS_BATCH_SIZE, 5);
+            if (!workerMessages.isEmpty()) {
+                workerExecutorService.submit(() -> handleWorkerMessages(workerMessages));
             }
+            reissueStragglers();
         }
     }
 
-    private void handleWorkerMessage(Message workerMessage) {
-        String clientID = getClientIdFromMessage(workerMessage);
-        appendReturnMessage(clientID, workerMessage);
-        clientMessages.put(clientID, clientMessages.get(clientID) - 1);
+    /**
+     * Sends a backup copy of every straggler packet of a nearly finished client. Whichever copy reports first is
+     * counted; the other result is discarded as a duplicate.
+     */
+    private void reissueStragglers() {
+        for (PacketTracker.Packet packet : packetTracker.stragglers(clientID -> clientMessages.getOrDefault(clientID, 0))) {
+            System.out.println("Re-issuing straggler packet " + packet.id() + " of client " + packet.clientId()
+                    + " after " + (System.currentTimeMillis() - packet.sentMillis()) / 1000 + "s");
+            sendMessagesToQueueInBatches(laneUrls.getOrDefault(packet.lane(), manager2workersUrl),
+                    List.of(packet.body()), packet.clientId(), List.of(Map.of("packetId", packet.id())));
+        }
+    }
 
-        if (clientMessages.get(clientID) == 0) {
-            handleClientCompletion(clientID);
+    /**
+     * Records a batch of worker results. The batch is deleted and its packets are counted as done even if a result
+     * or a client's completion fails, so redelivered copies are not mistaken for new results and no scheduler slot
+     * is left taken.
+     */
+    private void handleWorkerMessages(List<Message> workerMessages) {
+        List<String> completedClients = new ArrayList<>();
+        // One client ID per counted packet
+        List<String> countedPackets = new ArrayList<>();
+        try {
+            for (Message workerMessage : workerMessages) {
+                MessageAttributeValue timings = workerMessage.messageAttributes().get("timings");
+                if (timings != null) {
+                    taskCostEstimator.recordTimings(timings.stringValue());
+                }
+                String clientID = getClientIdFromMessage(workerMessage);
+                if (clientID == null || !clientMessages.containsKey(clientID)) {
+                    System.out.println("Discarding result for unknown client: " + clientID);
+                    continue;
+                }
+                MessageAttributeValue packetId = workerMessage.messageAttributes().get("packetId");
+                if (packetId != null && !packetTracker.finish(packetId.stringValue())) {
+                    System.out.println("Discarding duplicate result of packet " + packetId.stringValue());
+                    deleteDiscardedParts(workerMessage.body());
+                    continue;
+                }
+                try {
+                    String results = mergeFinishedParts(workerMessage.body());
+                    if (!results.isEmpty()) {
+                        appendReturnMessage(clientID, results);
+                    }
+                } catch (RuntimeException e) {
+                    System.err.println("Failed to record the result of packet " + workerMessage.messageId()
+                            + " for client " + clientID + ": " + e.getMessage());
+                }
+                Integer remaining = clientMessages.computeIfPresent(clientID, (id, count) -> count - 1);
+                countedPackets.add(clientID);
+                if (remaining != null && remaining == 0) {
+                    completedClients.add(clientID);
+                }
+            }
+
+            for (String clientID : completedClients) {
+                try {
+                    handleClientCompletion(clientID);
+                } catch (RuntimeException e) {
+                    System.err.println("Failed to complete client " + clientID + ": " + e.getMessage());
+                }
+            }
+        } finally {
+            deleteMessagesFromQueue(workers2managerUrl, workerMessages);
+            addToGlobalPacketsCounter(-countedPackets.size());
+            fairScheduler.complete(countedPackets);
+            completedPackets.addAndGet(countedPackets.size());
+        }
+    }
+
+    /**
+     * Takes the chunk results out of a worker packet and, for every split task whose last chunk just arrived,
+     * merges the chunks and puts the merged task's result line in their place.
+     */
+    private String mergeFinishedParts(String results) {
+        if (!results.contains("Part: ")) {
+            return results;
         }
+        StringBuilder body = new StringBuilder();
+        for (String line : results.split("\n")) {
+            String resultLine = line.startsWith("'") ? line.substring(1) : line;
+            if (resultLine.isEmpty()) {
+                continue;
+            }
+            if (!PageSplitter.isPartResult(resultLine)) {
+                body.append(resultLine).append("\n'");
+                continue;
+            }
+            PageSplitter.Split split = pageSplitter.recordPart(resultLine);
+            if (split != null) {
+                body.append(mergeParts(split));
+            }
+        }
+        return body.toString();
+    }
 
-        deleteMessageFromQueue(workers2managerUrl, workerMessage);
-        decrementGlobalPacketsCounter();
-        syncWorkerCount();
+    /**
+     * Concatenates the chunks of a split task, in page order, into the task's artifact: text as is, HTML wrapped
+     * like a single-page conversion, and images as one zip. The chunks are deleted afterwards.
+     */
+    private String mergeParts(PageSplitter.Split split) {
+        String resultLine = "Operation: " + split.operation + " <----> URL: " + split.pdfUrl + " <----> pages: " + split.pages;
+        if (split.error != null) {
+            split.partPaths().forEach(this::deletePart);
+            return resultLine + " <----> error: " + split.error + "\n'";
+        }
+
+        String pdfName = split.pdfUrl.substring(split.pdfUrl.lastIndexOf("/") + 1);
+        String extension = switch (split.operation.toUpperCase()) {
+            case "TOHTML" -> ".html";
+            case "TOIMAGE" -> ".zip";
+            default -> ".txt";
+        };
+        String s3Path = customerFilesDir + split.clientID + "/" + pdfName.replace(".pdf", split.pages.fileSuffix() + extension);
+        S3UploadStream outputStream = openS3UploadStream(s3Path, Runnable::run);
+        try {
+            if (split.operation.equalsIgnoreCase("TOIMAGE")) {
+                try (ZipOutputStream zip = new ZipOutputStream(outputStream)) {
+                    zip.setLevel(Deflater.NO_COMPRESSION);
+                    for (String partPath : split.partPaths()) {
+                        try (ZipInputStream part = new ZipInputStream(openS3Object(partPath))) {
+                            for (ZipEntry entry = part.getNextEntry(); entry != null; entry = part.getNextEntry()) {
+                                zip.putNextEntry(new ZipEntry(entry.getName()));
+                                part.transferTo(zip);
+                                zip.closeEntry();
+                            }
+                        }
+                    }
+                }
+            } else {
+                boolean html = split.operation.equalsIgnoreCase("TOHTML");
+                if (html) {
+                    outputStream.write("<html><head><style>pre { white-space: pre-wrap; word-wrap: break-word; }</style></head><body><pre>"
+                            .getBytes(StandardCharsets.UTF_8));
+                }
+                for (String partPath : split.partPaths()) {
+                    try (InputStream part = openS3Object(partPath)) {
+                        part.transferTo(outputStream);
+                    }
+                }
+                if (html) {
+                    outputStream.write("</pre></body></html>".getBytes(StandardCharsets.UTF_8));
+                }
+            }
+            outputStream.close();
+            outputStream.completion().join();
+            System.out.println("Merged " + split.parts + " parts into " + s3Path);
+            return resultLine + " <----> s3Path: " + s3Path + "\n'";
+        } catch (Exception e) {
+            outputStream.abort();
+            return resultLine + " <----> error: failed to merge parts: " + e.getMessage() + "\n'";
+        } finally {
+            split.partPaths().forEach(this::deletePart);
+        }
     }
 
-    private void appendReturnMessage(String clientID, Message message) {
-        StringBuilder returnMessage;
-        if (clientDoneMessages.containsKey(clientID)) {
-            returnMessage = clientDoneMessages.get(clientID);
-            returnMessage.append(message);
-        } else {
-            returnMessage = new StringBuilder(message.body());
+    /**
+     * Deletes the chunks named by a discarded duplicate result. A backup copy wrote them under its own prefix; a
+     * redelivered copy wrote over the accepted chunks, which are kept if they still wait to be merged.
+     */
+    private void deleteDiscardedParts(String results) {
+        for (String line : results.split("\n")) {
+            String resultLine = line.startsWith("'") ? line.substring(1) : line;
+            int s3Path = resultLine.lastIndexOf(" <----> s3Path: ");
+            if (!PageSplitter.isPartResult(resultLine) || s3Path < 0) {
+                continue;
+            }
+            String partPath = resultLine.substring(s3Path + " <----> s3Path: ".length()).trim();
+            if (!pageSplitter.isPendingPart(partPath)) {
+                deletePart(partPath);
+            }
         }
-        clientDoneMessages.put(clientID, returnMessage);
     }
 
-    private void handleClientCompletion(String clientID) {
-        String resultFilePath = completedTaskDir + clientID + ".DONE";
-        uploadFileToS3(resultFilePath, clientDoneMessages.get(clientID).toString());
+    private void deletePart(String partPath) {
+        try {
+            deleteS3Object(partPath);
+        } catch (RuntimeException e) {
+            System.err.println("Failed to delete part " + partPath + ": " + e.getMessage());
+        }
+    }
 
-        System.out.println("All tasks for client " + clientID + " are complete. Sending message to local app.");
-        String manager2clientIdQueue = getOrCreateQueueUrl("manager2_clientID_" + clientID);
+    private void appendReturnMessage(String clientID, String results) {
+        clientDoneMessages.compute(clientID, (id, returnMessage) ->
+                returnMessage == null ? new StringBuilder(results) : returnMessage.append(results));
+    }
+
+    /**
+     * Sends the client its summary. The client is forgotten even if that fails, so termination does not wait on it.
+     */
+    private void handleClientCompletion(String clientID) {
+        try {
+            String resultFilePath = completedTaskDir + clientID + ".DONE";
+            uploadFileToS3(resultFilePath, clientDoneMessages.getOrDefault(clientID, new StringBuilder()).toString());
 
+            System.out.println("All tasks for client " + clientID + " are complete. Sending message to local app.");
+            String manager2clientIdQueue = getOrCreateQueueUrl("manager2_clientID_" + clientID);
 
-        sendMessageToQueue(manager2clientIdQueue, resultFilePath, clientID);
 
-        clientDoneMessages.remove(clientID);
-        clientMessages.remove(clientID);
+            sendMessageToQueue(manager2clientIdQueue, resultFilePath, clientID);
+        } finally {
+            clientDoneMessages.remove(clientID);
+            clientMessages.remove(clientID);
+            pageSplitter.forgetClient(clientID);
+            packetTracker.forgetClient(clientID);
+        }
     }
 
     private void handleClientMessage(Message clientMessage) {
@@ -140,44 +388,139 @@ public class Manager extends AWS {
         sendTasksToWorkers(newTasks, clientID);
         System.out.println("Tasks sent to workers. Deleting message from queue...");
         deleteMessageFromQueue(client2managerUrl, clientMessage);
-        syncWorkerCount();
     }
 
+    /**
+     * Packs the client's tasks lane by lane, so light and heavy operations never share a packet, and queues each
+     * lane's packets on that lane's queue.
+     */
     private void sendTasksToWorkers(String newTasks, String clientID) {
-        StringBuilder workerMessage = new StringBuilder();
-        int newMessageTasks = 0;
-
-        for (String task : newTasks.split("\n")) {
-            workerMessage.append(task).append("\n");
-            newMessageTasks++;
-            if (newMessageTasks == tasksPerWorker) {
-                System.out.println("sending " + tasksPerWorker + " tasks to workers...");
-                sendMessageToQueue(manager2workersUrl, workerMessage.toString(), clientID);
-                clientMessages.put(clientID, clientMessages.get(clientID) + 1);
-                incrementGlobalPacketsCounter();
-                newMessageTasks = 0;
-                workerMessage = new StringBuilder();
+        Map<TaskLane, List<String>> laneTasks = new EnumMap<>(TaskLane.class);
+        for (String task : pageSplitter.expand(clientID, newTasks)) {
+            if (!task.trim().isEmpty()) {
+                laneTasks.computeIfAbsent(TaskLane.of(TaskLine.parse(task)), lane -> new ArrayList<>()).add(task);
             }
         }
+        if (laneTasks.isEmpty()) {
+            // No worker result will ever complete the client, so it gets its (empty) summary right away
+            System.out.println("Client " + clientID + " sent no tasks");
+            handleClientCompletion(clientID);
+            return;
+        }
+        Map<TaskLane, List<String>> lanePackets = new EnumMap<>(TaskLane.class);
+        laneTasks.forEach((lane, tasks) -> lanePackets.put(lane, packetPacker.pack(String.join("\n", tasks))));
+        int packetCount = lanePackets.values().stream().mapToInt(List::size).sum();
+
+        // Count the packets before they are queued, so a fast worker reply can't drive the count to zero early
+        System.out.println("scheduling " + packetCount + " packets of up to " + tasksPerWorker + " tasks for workers...");
+        clientMessages.merge(clientID, packetCount, Integer::sum);
+        addToGlobalPacketsCounter(packetCount);
+        fairScheduler.submit(clientID, lanePackets);
+    }
 
-        if (newMessageTasks > 0) {
-            System.out.println("Sending remaining " + newMessageTasks + " tasks to workers...");
-            sendMessageToQueue(manager2workersUrl, workerMessage.toString(), clientID);
-            clientMessages.put(clientID, clientMessages.get(clientID) + 1);
-            incrementGlobalPacketsCounter();
+    /**
+     * Queues packets the fair scheduler released. Packets that could not be sent are written off for the client,
+     * with an error line for each of their tasks, and complete the client if they were all it was waiting for.
+     */
+    private int queuePackets(String clientID, TaskLane lane, List<String> packets) {
+        List<String> packetIds = new ArrayList<>();
+        List<Map<String, String>> attributes = new ArrayList<>();
+        for (int i = 0; i < packets.size(); i++) {
+            packetIds.add(packetTracker.newId(clientID));
+            attributes.add(Map.of("packetId", packetIds.get(i)));
+        }
+        Set<Integer> sentPackets;
+        try {
+            sentPackets = sendMessagesToQueueInBatches(laneUrls.getOrDefault(lane, manager2workersUrl), packets,
+                    clientID, attributes);
+        } catch (RuntimeException e) {
+            System.err.println("Failed to queue " + lane + " packets for client " + clientID + ": " + e.getMessage());
+            sentPackets = Set.of();
+        }
+        long sentMillis = System.currentTimeMillis();
+        for (int i : sentPackets) {
+            packetTracker.sent(new PacketTracker.Packet(packetIds.get(i), clientID, lane, packets.get(i), sentMillis));
+        }
+        int sent = sentPackets.size();
+        if (sent < packets.size()) {
+            int lost = packets.size() - sent;
+            System.err.println("Failed to send " + lost + " " + lane + " packets for client " + clientID);
+            StringBuilder lostResults = new StringBuilder();
+            for (int i = 0; i < packets.size(); i++) {
+                if (!sentPackets.contains(i)) {
+                    lostResults.append(errorLines(packets.get(i), "failed to queue the task for workers"));
+                }
+            }
+            String results = mergeFinishedParts(lostResults.toString());
+            if (!results.isEmpty()) {
+                appendReturnMessage(clientID, results);
+            }
+            addToGlobalPacketsCounter(-lost);
+            Integer remaining = clientMessages.computeIfPresent(clientID, (id, count) -> count - lost);
+            if (remaining != null && remaining == 0) {
+                handleClientCompletion(clientID);
+            }
+        }
+        return sent;
+    }
+
+    /**
+     * Result lines that report every task of a packet as failed, in the format workers use.
+     */
+    private static String errorLines(String packet, String error) {
+        StringBuilder lines = new StringBuilder();
+        for (String line : packet.split("\n")) {
+            TaskLine task = TaskLine.parse(line);
+            if (task == null) {
+                continue;
+            }
+            lines.append(task.partId() != null ? "Part: " + task.partId() + " <----> " : "")
+                    .append("Operation: ").append(task.operation()).append(" <----> URL: ").append(task.pdfUrl())
+                    .append(task.pages() != null ? " <----> pages: " + task.pages() : "")
+                    .append(" <----> error: ").append(error).append("\n'");
+        }
+        return lines.toString();
+    }
+
+    /**
+     * Asks the scaling policy for the fleet size, fed with the lane queues' depth as SQS reports it, the fair
+     * scheduler's backlog and the packets completed since the last tick.
+     */
+    private void scaleWorkers() {
+        try {
+            long queued = 0;
+            long inFlight = 0;
+            for (String laneUrl : laneUrls.values()) {
+                QueueDepth depth = getQueueDepth(laneUrl);
+                queued += depth.queued();
+                inFlight += depth.inFlight();
+            }
+            int workers;
+            synchronized (lock) {
+                workers = workerCount;
+            }
+            int requiredWorkers = scalingPolicy.desiredWorkers(new ScalingPolicy.Inputs(System.currentTimeMillis(),
+                    workers, workerRegistry.reportedCount(workersList), queued, inFlight, fairScheduler.getBacklog(),
+                    completedPackets.getAndSet(0)));
+            if (requiredWorkers != workers) {
+                syncWorkerCount(requiredWorkers);
+            }
+        } catch (RuntimeException e) {
+            System.err.println("Failed to scale workers: " + e.getMessage());
         }
     }
 
-    private void syncWorkerCount() {
+    private void syncWorkerCount(int requiredWorkers) {
 
         synchronized (lock) {
-            int requiredWorkers = getGlobalPacketsCounter();
             System.out.println("\n" + "Required workers: " + requiredWorkers + ", Instances count: " +
                     (workerCount + 1) + ", Max allowed: 9");
 
             if (requiredWorkers > workerCount) {
                 int workersToOpen = (Math.max((requiredWorkers - workerCount), 0));
-                workersToOpen = Math.min(workersToOpen, MAX_INSTANCES - (workerCount + 1));
+                // Draining workers still hold an instance until they are terminated
+                workersToOpen = Math.min(workersToOpen,
+                        MAX_INSTANCES - (workerCount + 1 + workerRegistry.drainingCount()));
                 System.out.println("Workers to open: " + workersToOpen);
 
                 for (int i = 0; i < workersToOpen; i++) {
@@ -193,21 +536,64 @@ public class Manager extends AWS {
 
             } else if (requiredWorkers < workerCount) {
                 int workersToClose = Math.max(workerCount - requiredWorkers, 0);
-                for (int i = 0; i < workersToClose; i++) {
-                    String workerId = removeWorker(workersList.get(workersList.size() - 1));
-                    if (workerId != null) {
-                        System.out.println("Worker: " + workerId + " removed");
-                        workersList.remove(workerId);
-                        workerCount--;
-                    } else {
-                        System.out.println("Worker failed to be removed");
-                        i++;
-                    }
+                for (String workerId : workerRegistry.pickForRemoval(workersList, workersToClose)) {
+                    drainWorker(workerId);
                 }
             }
         }
     }
 
+    /**
+     * Asks the worker to stop taking packets. It is terminated once it reports DRAINED, or after the drain timeout.
+     */
+    private void drainWorker(String workerId) {
+        // Marked first, so a DRAINED report that arrives right away is not ignored
+        workerRegistry.startDrain(workerId);
+        try {
+            sendMessageToQueue(getOrCreateQueueUrl(WorkerRegistry.controlQueueName(workerId)), "DRAIN", workerId);
+        } catch (SqsException e) {
+            System.err.println("Failed to ask worker " + workerId + " to drain: " + e.getMessage());
+            workerRegistry.cancelDrain(workerId);
+            return;
+        }
+        System.out.println("Draining worker: " + workerId);
+        workersList.remove(workerId);
+        workerCount--;
+    }
+
+    /**
+     * Records worker status reports and finishes drains. Runs until the Manager terminates and no worker is
+     * draining any more, so the drains under way when termination starts still end with their instances stopped.
+     */
+    private void readWorkerStatus() {
+        while (!getIsTerminating() || workerRegistry.drainingCount() > 0) {
+            try {
+                List<Message> reports = receiveMessagesFromQueue(workersStatusUrl, SQS_BATCH_SIZE, 10);
+                reports.forEach(report -> workerRegistry.record(report.body()));
+                if (!reports.isEmpty()) {
+                    deleteMessagesFromQueue(workersStatusUrl, reports);
+                }
+                for (String workerId : workerRegistry.drained()) {
+                    finishDrain(workerId);
+                }
+                for (String workerId : workerRegistry.overdue(drainTimeoutMillis)) {
+                    System.err.println("Worker " + workerId + " did not drain in time, terminating it");
+                    finishDrain(workerId);
+                }
+            } catch (SqsException e) {
+                System.err.println("Failed to read worker status: " + e.getMessage());
+            }
+        }
+    }
+
+    private void finishDrain(String workerId) {
+        if (removeWorker(workerId) != null) {
+            System.out.println("Worker: " + workerId + " removed");
+        }
+        workerRegistry.forget(workerId);
+        deleteQueue(getOrCreateQueueUrl(WorkerRegistry.controlQueueName(workerId)));
+    }
+
     private void terminate() {
         System.out.println("Finalizing existed tasks..." + "\n");
         try {
@@ -221,6 +607,12 @@ public class Manager extends AWS {
                 System.out.println("waiting for local-apps to finish...");
                 Thread.sleep(1000);
             }
+            scaler.shutdownNow();
+            // Drains end with DRAINED or the drain timeout; the queues they report on are deleted below
+            while (workerRegistry.drainingCount() > 0) {
+                System.out.println("Waiting for " + workerRegistry.drainingCount() + " workers to drain...");
+                Thread.sleep(1000);
+            }
             cleanUpResources();
         } catch (InterruptedException e) {
             Thread.currentThread().interrupt();
@@ -241,14 +633,8 @@ public class Manager extends AWS {
         }
     }
 
-    // Increment globalTasksCounter
-    private void incrementGlobalPacketsCounter() {
-        globalPacketsCounter.updateAndGet(value -> value + 1);
-    }
-
-    // Decrement globalTasksCounter
-    private void decrementGlobalPacketsCounter() {
-        globalPacketsCounter.updateAndGet(value -> value - 1);
+    private void addToGlobalPacketsCounter(int packets) {
+        globalPacketsCounter.updateAndGet(value -> value + packets);
     }
 
     private int getGlobalPacketsCounter() {
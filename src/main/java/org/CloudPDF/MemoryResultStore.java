@@ -0,0 +1,36 @@
+package org.CloudPDF;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Optional;
+
+/**
+ * Cache index local to one process, evicting the least recently used key beyond maxEntries.
+ */
+public class MemoryResultStore implements ResultStore {
+    private final Map<String, Entry> entries;
+
+    public MemoryResultStore(int maxEntries) {
+        this.entries = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, ResultStore.Entry> eldest) {
+                return size() > maxEntries;
+            }
+        };
+    }
+
+    @Override
+    public synchronized Optional<Entry> get(String key) {
+        return Optional.ofNullable(entries.get(key));
+    }
+
+    @Override
+    public synchronized void put(String key, String s3Path) {
+        entries.put(key, new Entry(s3Path, System.currentTimeMillis()));
+    }
+
+    @Override
+    public synchronized void remove(String key) {
+        entries.remove(key);
+    }
+}
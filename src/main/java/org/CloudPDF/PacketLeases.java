@@ -0,0 +1,136 @@
+package org.CloudPDF;
+
+import software.amazon.awssdk.services.sqs.model.Message;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Keeps the packets a worker is processing invisible to other workers. Packets are received with a visibility
+ * timeout of visibilityTimeoutSeconds, and every heartbeatSeconds each held packet is extended by that timeout
+ * again, so a long packet is not redelivered while it is still being worked on.
+ * A packet whose tasks have made no progress for stuckSeconds is given up: its lease is released (visibility 0) so
+ * another worker takes it at once, and a result that turns up later is dropped.
+ * Leases are keyed by receipt handle, which is new on every receive, so a packet redelivered to the same worker
+ * gets a lease of its own that the earlier delivery's acknowledgement or release does not touch.
+ */
+public class PacketLeases {
+
+    @FunctionalInterface
+    public interface VisibilityChanger {
+        void change(String queueUrl, List<Message> messages, int timeoutSeconds);
+    }
+
+    private static final class Lease {
+        final String queueUrl;
+        final Message message;
+        volatile long lastProgressMillis = System.currentTimeMillis();
+
+        Lease(String queueUrl, Message message) {
+            this.queueUrl = queueUrl;
+            this.message = message;
+        }
+    }
+
+    private final int visibilityTimeoutSeconds;
+    private final int heartbeatSeconds;
+    private final long stuckMillis;
+    private final VisibilityChanger visibilityChanger;
+    private final ConcurrentHashMap<String, Lease> leases = new ConcurrentHashMap<>();
+    private final ScheduledExecutorService heartbeat =
+            Executors.newSingleThreadScheduledExecutor(DaemonThreads.named("packet-leases"));
+
+    public PacketLeases(int visibilityTimeoutSeconds, int heartbeatSeconds, int stuckSeconds,
+                        VisibilityChanger visibilityChanger) {
+        this.visibilityTimeoutSeconds = visibilityTimeoutSeconds;
+        this.heartbeatSeconds = Math.max(1, Math.min(heartbeatSeconds, visibilityTimeoutSeconds / 2));
+        this.stuckMillis = TimeUnit.SECONDS.toMillis(stuckSeconds);
+        this.visibilityChanger = visibilityChanger;
+    }
+
+    public void start() {
+        heartbeat.scheduleAtFixedRate(this::beat, heartbeatSeconds, heartbeatSeconds, TimeUnit.SECONDS);
+        System.out.println("Packet leases: " + visibilityTimeoutSeconds + "s, renewed every " + heartbeatSeconds
+                + "s, given up after " + TimeUnit.MILLISECONDS.toSeconds(stuckMillis) + "s without progress");
+    }
+
+    public int visibilityTimeoutSeconds() {
+        return visibilityTimeoutSeconds;
+    }
+
+    public void hold(String queueUrl, Message message) {
+        leases.put(message.receiptHandle(), new Lease(queueUrl, message));
+    }
+
+    /**
+     * Notes that one of the packet's tasks finished.
+     */
+    public void progress(Message message) {
+        Lease lease = leases.get(message.receiptHandle());
+        if (lease != null) {
+            lease.lastProgressMillis = System.currentTimeMillis();
+        }
+    }
+
+    /**
+     * @return how many packets are held: received, and neither acknowledged nor given up
+     */
+    public int held() {
+        return leases.size();
+    }
+
+    /**
+     * @return false if the packet was given up, in which case its result must not be reported
+     */
+    public boolean isHeld(Message message) {
+        return leases.containsKey(message.receiptHandle());
+    }
+
+    /**
+     * Stops renewing the lease of a packet that is being acknowledged.
+     */
+    public void drop(Message message) {
+        leases.remove(message.receiptHandle());
+    }
+
+    /**
+     * Hands the packet back to the queue at once, for another attempt.
+     */
+    public void release(Message message) {
+        Lease lease = leases.remove(message.receiptHandle());
+        if (lease != null) {
+            visibilityChanger.change(lease.queueUrl, List.of(message), 0);
+        }
+    }
+
+    private void beat() {
+        try {
+            long now = System.currentTimeMillis();
+            Map<String, List<Message>> renewals = new HashMap<>();
+            Map<String, List<Message>> releases = new HashMap<>();
+            for (Lease lease : leases.values()) {
+                if (now - lease.lastProgressMillis > stuckMillis) {
+                    if (leases.remove(lease.message.receiptHandle(), lease)) {
+                        System.err.println("Packet " + lease.message.messageId() + " made no progress for "
+                                + TimeUnit.MILLISECONDS.toSeconds(now - lease.lastProgressMillis)
+                                + "s, releasing it to other workers");
+                        releases.computeIfAbsent(lease.queueUrl, queueUrl -> new ArrayList<>()).add(lease.message);
+                    }
+                } else {
+                    renewals.computeIfAbsent(lease.queueUrl, queueUrl -> new ArrayList<>()).add(lease.message);
+                }
+            }
+            releases.forEach((queueUrl, messages) -> visibilityChanger.change(queueUrl, messages, 0));
+            renewals.forEach((queueUrl, messages) ->
+                    visibilityChanger.change(queueUrl, messages, visibilityTimeoutSeconds));
+        } catch (RuntimeException e) {
+            System.err.println("Failed to renew packet leases: " + e.getMessage());
+        }
+    }
+}
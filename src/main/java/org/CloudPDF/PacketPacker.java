@@ -0,0 +1,237 @@
+package org.CloudPDF;
+
+import java.net.URI;
+import java.util.*;
+import java.util.stream.Collectors;
+
+/**
+ * Cuts a client's task lines into worker packets of at most tasksPerPacket lines.
+ * In FILE mode packets follow the input order. In URL and HOST modes lines are first grouped by their PDF URL
+ * (or by its host), so that operations on one document travel in the same packet and the worker downloads it once.
+ * A group larger than the budget is split into full packets; the remaining groups are packed first-fit-decreasing,
+ * which keeps the packet count close to the file-order count.
+ * In COST mode lines are grouped by URL as well, but each group is weighed by its estimated run time (see
+ * {@link TaskCostEstimator}) and the groups are dealt, most expensive first, to whichever packet has the least work so
+ * far, as long as it has room. Groups larger than tasksPerPacket are cut into pieces first. The packet count stays
+ * the one tasksPerPacket gives unless the pieces do not fit, so packets take about equally long instead of holding
+ * equally many lines.
+ * Chunks of a split page range ("part:" lines) each get a packet of their own in every mode but FILE, so they are
+ * spread over as many workers as possible.
+ */
+public class PacketPacker {
+
+    public enum Mode {FILE, URL, HOST, COST}
+
+    private final Mode mode;
+    private final int tasksPerPacket;
+    private final TaskCostEstimator costEstimator;
+
+    public PacketPacker(Mode mode, int tasksPerPacket, TaskCostEstimator costEstimator) {
+        this.mode = mode;
+        this.tasksPerPacket = tasksPerPacket;
+        this.costEstimator = costEstimator;
+    }
+
+    public static PacketPacker fromSystemProperties(int tasksPerPacket, TaskCostEstimator costEstimator) {
+        Mode mode = Mode.valueOf(System.getProperty("cloudpdf.manager.packing", "cost").toUpperCase());
+        return new PacketPacker(mode, tasksPerPacket, costEstimator);
+    }
+
+    public List<String> pack(String tasks) {
+        if (mode == Mode.FILE) {
+            return packInFileOrder(tasks.split("\n"));
+        }
+
+        List<StringBuilder> packets = new ArrayList<>();
+        List<Integer> packetSizes = new ArrayList<>();
+        Map<String, List<String>> groups = new LinkedHashMap<>();
+        for (String task : tasks.split("\n")) {
+            TaskLine taskLine = TaskLine.parse(task);
+            if (taskLine != null && taskLine.partId() != null) {
+                packets.add(new StringBuilder(task).append("\n"));
+                packetSizes.add(tasksPerPacket);
+            } else if (!task.trim().isEmpty()) {
+                groups.computeIfAbsent(groupKey(task), key -> new ArrayList<>()).add(task);
+            }
+        }
+
+        if (groups.isEmpty() && packets.isEmpty()) {
+            return packInFileOrder(tasks.split("\n"));
+        }
+        if (mode == Mode.COST) {
+            return packByCost(packets, groups);
+        }
+
+        List<List<String>> remainders = new ArrayList<>();
+        for (List<String> group : groups.values()) {
+            int full = group.size() - group.size() % tasksPerPacket;
+            for (int start = 0; start < full; start += tasksPerPacket) {
+                packets.add(join(new StringBuilder(), group.subList(start, start + tasksPerPacket)));
+                packetSizes.add(tasksPerPacket);
+            }
+            if (full < group.size()) {
+                remainders.add(group.subList(full, group.size()));
+            }
+        }
+
+        // Stable sort, so groups of equal size keep their input order
+        remainders.sort(Comparator.comparingInt((List<String> group) -> group.size()).reversed());
+        int firstPartial = packets.size();
+        for (List<String> group : remainders) {
+            int target = -1;
+            for (int i = firstPartial; i < packets.size(); i++) {
+                if (packetSizes.get(i) + group.size() <= tasksPerPacket) {
+                    target = i;
+                    break;
+                }
+            }
+            if (target < 0) {
+                packets.add(new StringBuilder());
+                packetSizes.add(0);
+                target = packets.size() - 1;
+            }
+            join(packets.get(target), group);
+            packetSizes.set(target, packetSizes.get(target) + group.size());
+        }
+
+        return packets.stream().map(StringBuilder::toString).toList();
+    }
+
+    private record Piece(List<String> tasks, long cost) {
+    }
+
+    private List<String> packByCost(List<StringBuilder> packets, Map<String, List<String>> groups) {
+        // Invalid lines cost nothing; the worker only reports them
+        Map<String, Long> convertCosts = new HashMap<>();
+        int lineCount = 0;
+        for (List<String> group : groups.values()) {
+            for (String task : group) {
+                TaskLine taskLine = TaskLine.parse(task);
+                if (taskLine != null) {
+                    convertCosts.put(task, costEstimator.convertMillis(taskLine));
+                }
+            }
+            lineCount += group.size();
+        }
+        Set<String> pdfUrls = groups.entrySet().stream()
+                .filter(group -> group.getValue().stream().anyMatch(convertCosts::containsKey))
+                .map(Map.Entry::getKey)
+                .collect(Collectors.toSet());
+        Map<String, Long> contentLengths = costEstimator.contentLengths(pdfUrls);
+
+        // A group larger than the budget is cut into pieces that fit a packet, each downloading the document itself
+        List<Piece> pieces = new ArrayList<>();
+        for (Map.Entry<String, List<String>> group : groups.entrySet()) {
+            long downloadCost = pdfUrls.contains(group.getKey())
+                    ? costEstimator.downloadMillis(group.getKey(), contentLengths.getOrDefault(group.getKey(), -1L))
+                    : 0;
+            for (int start = 0; start < group.getValue().size(); start += tasksPerPacket) {
+                List<String> tasks = group.getValue().subList(start, Math.min(start + tasksPerPacket, group.getValue().size()));
+                long cost = downloadCost;
+                for (String task : tasks) {
+                    cost += convertCosts.getOrDefault(task, 0L);
+                }
+                pieces.add(new Piece(tasks, cost));
+            }
+        }
+
+        List<StringBuilder> costPackets = new ArrayList<>();
+        List<Long> packetCosts = new ArrayList<>();
+        List<Integer> packetSizes = new ArrayList<>();
+        PriorityQueue<Integer> leastLoaded = new PriorityQueue<>(
+                Comparator.comparingLong((Integer packet) -> packetCosts.get(packet)).thenComparingInt(packet -> packet));
+        for (int i = 0; i < (lineCount + tasksPerPacket - 1) / tasksPerPacket; i++) {
+            costPackets.add(new StringBuilder());
+            packetCosts.add(0L);
+            packetSizes.add(0);
+            leastLoaded.add(i);
+        }
+
+        // Stable sort, so pieces of equal cost keep their input order
+        pieces.sort(Comparator.comparingLong(Piece::cost).reversed());
+        for (Piece piece : pieces) {
+            // The least loaded packet that still has room, or a new one if none has
+            List<Integer> full = new ArrayList<>();
+            Integer packet = leastLoaded.poll();
+            while (packet != null && packetSizes.get(packet) + piece.tasks().size() > tasksPerPacket) {
+                full.add(packet);
+                packet = leastLoaded.poll();
+            }
+            leastLoaded.addAll(full);
+            if (packet == null) {
+                packet = costPackets.size();
+                costPackets.add(new StringBuilder());
+                packetCosts.add(0L);
+                packetSizes.add(0);
+            }
+            join(costPackets.get(packet), piece.tasks());
+            packetCosts.set(packet, packetCosts.get(packet) + piece.cost());
+            packetSizes.set(packet, packetSizes.get(packet) + piece.tasks().size());
+            leastLoaded.add(packet);
+        }
+
+        List<StringBuilder> filled = new ArrayList<>();
+        LongSummaryStatistics filledCosts = new LongSummaryStatistics();
+        for (int i = 0; i < costPackets.size(); i++) {
+            if (packetSizes.get(i) > 0) {
+                filled.add(costPackets.get(i));
+                filledCosts.accept(packetCosts.get(i));
+            }
+        }
+        System.out.println("Packed " + lineCount + " tasks into " + filled.size() + " packets, estimated "
+                + (filled.isEmpty() ? 0 : filledCosts.getMin()) + ".." + (filled.isEmpty() ? 0 : filledCosts.getMax())
+                + " ms each");
+        packets.addAll(filled);
+        return packets.stream().map(StringBuilder::toString).toList();
+    }
+
+    private List<String> packInFileOrder(String[] tasks) {
+        List<String> packets = new ArrayList<>();
+        StringBuilder workerMessage = new StringBuilder();
+        int newMessageTasks = 0;
+
+        for (String task : tasks) {
+            workerMessage.append(task).append("\n");
+            newMessageTasks++;
+            if (newMessageTasks == tasksPerPacket) {
+                packets.add(workerMessage.toString());
+                newMessageTasks = 0;
+                workerMessage = new StringBuilder();
+            }
+        }
+
+        if (newMessageTasks > 0) {
+            packets.add(workerMessage.toString());
+        }
+        return packets;
+    }
+
+    /**
+     * Lines that are not "operation url" are grouped by themselves; the worker reports them as invalid.
+     */
+    private String groupKey(String task) {
+        TaskLine taskLine = TaskLine.parse(task);
+        if (taskLine == null) {
+            return task;
+        }
+        String pdfUrl = taskLine.pdfUrl();
+        if (mode == Mode.HOST) {
+            try {
+                String host = URI.create(pdfUrl).getHost();
+                if (host != null) {
+                    return host.toLowerCase();
+                }
+            } catch (IllegalArgumentException e) {
+                // Grouped by URL below
+            }
+        }
+        return pdfUrl;
+    }
+
+    private static StringBuilder join(StringBuilder packet, List<String> tasks) {
+        for (String task : tasks) {
+            packet.append(task).append("\n");
+        }
+        return packet;
+    }
+}
@@ -0,0 +1,100 @@
+package org.CloudPDF;
+
+import java.util.*;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.ToIntFunction;
+
+/**
+ * Tracks the packets the Manager has queued and picks stragglers to run again elsewhere, like MapReduce backup
+ * tasks. Every packet carries a packetId attribute that the worker echoes back; the first result for an ID wins and
+ * later ones are duplicates.
+ * Once at most remainingFraction of a client's packets are still outstanding, each of its packets that has been out
+ * for more than slowFactor times the median packet duration (and at least minStragglerMillis) is re-issued, once.
+ */
+public class PacketTracker {
+    private static final int MAX_DURATION_SAMPLES = 200;
+
+    public record Packet(String id, String clientId, TaskLane lane, String body, long sentMillis) {
+    }
+
+    private final double remainingFraction;
+    private final double slowFactor;
+    private final long minStragglerMillis;
+    private final AtomicLong nextId = new AtomicLong();
+    private final Map<String, Packet> outstanding = new HashMap<>();
+    private final Set<String> reissued = new HashSet<>();
+    private final Map<String, Integer> sentPerClient = new HashMap<>();
+    private final Deque<Long> durations = new ArrayDeque<>();
+
+    public PacketTracker(double remainingFraction, double slowFactor, long minStragglerMillis) {
+        this.remainingFraction = remainingFraction;
+        this.slowFactor = slowFactor;
+        this.minStragglerMillis = minStragglerMillis;
+    }
+
+    public String newId(String clientId) {
+        return clientId + "-" + Long.toString(nextId.incrementAndGet(), 36);
+    }
+
+    public synchronized void sent(Packet packet) {
+        outstanding.put(packet.id(), packet);
+        sentPerClient.merge(packet.clientId(), 1, Integer::sum);
+    }
+
+    /**
+     * Records a result for the packet.
+     *
+     * @return true for the first result, false for a duplicate from a backup or redelivered copy
+     */
+    public synchronized boolean finish(String packetId) {
+        Packet packet = outstanding.remove(packetId);
+        if (packet == null) {
+            return false;
+        }
+        reissued.remove(packetId);
+        durations.add(System.currentTimeMillis() - packet.sentMillis());
+        if (durations.size() > MAX_DURATION_SAMPLES) {
+            durations.poll();
+        }
+        return true;
+    }
+
+    /**
+     * Picks the packets to re-issue now and marks them, so none is picked twice.
+     *
+     * @param remaining how many of a client's packets have not reported yet, counting those not yet queued
+     */
+    public synchronized List<Packet> stragglers(ToIntFunction<String> remaining) {
+        if (durations.isEmpty() || outstanding.isEmpty()) {
+            return List.of();
+        }
+        List<Long> sorted = new ArrayList<>(durations);
+        Collections.sort(sorted);
+        long threshold = Math.max(minStragglerMillis, (long) (slowFactor * sorted.get(sorted.size() / 2)));
+        long now = System.currentTimeMillis();
+
+        List<Packet> stragglers = new ArrayList<>();
+        for (Packet packet : outstanding.values()) {
+            if (reissued.contains(packet.id()) || now - packet.sentMillis() <= threshold) {
+                continue;
+            }
+            int sent = sentPerClient.getOrDefault(packet.clientId(), 0);
+            if (remaining.applyAsInt(packet.clientId()) <= Math.max(1, Math.ceil(remainingFraction * sent))) {
+                reissued.add(packet.id());
+                stragglers.add(packet);
+            }
+        }
+        return stragglers;
+    }
+
+    public synchronized void forgetClient(String clientId) {
+        outstanding.values().removeIf(packet -> {
+            if (packet.clientId().equals(clientId)) {
+                reissued.remove(packet.id());
+                return true;
+            }
+            return false;
+        });
+        sentPerClient.remove(clientId);
+    }
+}
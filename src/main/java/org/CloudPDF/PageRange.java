@@ -0,0 +1,70 @@
+package org.CloudPDF;
+
+/**
+ * Inclusive, 1-based range of pages. An end of 0 means "through the last page", for ranges written as "5-" or
+ * "all" whose end is only known once the document is opened.
+ */
+public record PageRange(int start, int end) {
+
+    public static final PageRange FIRST_PAGE = new PageRange(1, 1);
+
+    public PageRange {
+        if (start < 1 || (end != 0 && end < start)) {
+            throw new IllegalArgumentException("Invalid page range: " + start + "-" + end);
+        }
+    }
+
+    /**
+     * Parses "all", "N", "N-" or "N-M".
+     */
+    public static PageRange parse(String text) {
+        if (text.equalsIgnoreCase("all")) {
+            return new PageRange(1, 0);
+        }
+        try {
+            int dash = text.indexOf('-');
+            if (dash < 0) {
+                int page = Integer.parseInt(text);
+                return new PageRange(page, page);
+            }
+            int start = Integer.parseInt(text.substring(0, dash));
+            String end = text.substring(dash + 1);
+            return new PageRange(start, end.isEmpty() ? 0 : Integer.parseInt(end));
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Invalid page range: " + text);
+        }
+    }
+
+    public boolean isOpenEnded() {
+        return end == 0;
+    }
+
+    /**
+     * Fixes the end of an open-ended range against the document's page count.
+     */
+    public PageRange resolve(int pageCount) {
+        if (start > pageCount || end > pageCount) {
+            throw new IllegalArgumentException("Page range " + this + " is outside the document's " + pageCount + " pages");
+        }
+        return isOpenEnded() ? new PageRange(start, pageCount) : this;
+    }
+
+    public int size() {
+        if (isOpenEnded()) {
+            throw new IllegalStateException("Open-ended page range: " + this);
+        }
+        return end - start + 1;
+    }
+
+    /**
+     * Suffix that tells outputs of different ranges of one document apart, e.g. ".p1-20".
+     */
+    public String fileSuffix() {
+        return ".p" + start + (start == end ? "" : "-" + (isOpenEnded() ? "end" : end));
+    }
+
+    @Override
+    public String toString() {
+        return start == end ? String.valueOf(start) : start + "-" + (isOpenEnded() ? "" : end);
+    }
+}
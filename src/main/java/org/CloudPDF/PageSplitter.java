@@ -0,0 +1,201 @@
+package org.CloudPDF;
+
+import org.apache.pdfbox.Loader;
+import org.apache.pdfbox.io.IOUtils;
+import org.apache.pdfbox.pdfparser.PDFParser;
+import org.apache.pdfbox.pdmodel.PDDocument;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Splits page-range tasks longer than pagesPerPart pages into chunks ("part:id" task lines) that can run on
+ * different workers, and keeps track of the chunks until all of them have reported back, so the Manager can merge
+ * them into one artifact. Open-ended ranges ("all", "N-") are resolved first by reading the page count of the
+ * document, loading it lazily over HTTP ranges where the server allows it.
+ */
+public class PageSplitter {
+    private static final int PROBE_BLOCK_BYTES = 64 * 1024;
+
+    private final PdfFetcher pdfFetcher;
+    private final int pagesPerPart;
+    private final AtomicLong nextSplitId = new AtomicLong();
+    private final ConcurrentHashMap<String, Split> splits = new ConcurrentHashMap<>();
+
+    /**
+     * A task whose range was split, and what its chunks have reported so far.
+     */
+    public static final class Split {
+        final String id;
+        final String clientID;
+        final String operation;
+        final String pdfUrl;
+        final PageRange pages;
+        final int parts;
+        final TreeMap<Integer, String> partPaths = new TreeMap<>();
+        String error;
+        int reported = 0;
+
+        Split(String id, String clientID, String operation, String pdfUrl, PageRange pages, int parts) {
+            this.id = id;
+            this.clientID = clientID;
+            this.operation = operation;
+            this.pdfUrl = pdfUrl;
+            this.pages = pages;
+            this.parts = parts;
+        }
+
+        /**
+         * @return the S3 paths of the chunks in page order
+         */
+        public List<String> partPaths() {
+            return new ArrayList<>(partPaths.values());
+        }
+    }
+
+    public PageSplitter(PdfFetcher pdfFetcher, int pagesPerPart) {
+        this.pdfFetcher = pdfFetcher;
+        this.pagesPerPart = pagesPerPart;
+    }
+
+    /**
+     * Rewrites a client's task lines: ranges longer than pagesPerPart become one line per chunk, open-ended
+     * ranges get their end filled in, and every other line is passed through unchanged.
+     */
+    public List<String> expand(String clientID, String tasks) {
+        List<String> lines = new ArrayList<>();
+        for (String line : tasks.split("\n")) {
+            TaskLine task = TaskLine.parse(line);
+            if (task == null || task.pages() == null || task.partId() != null) {
+                lines.add(line);
+                continue;
+            }
+            PageRange pages = task.pages();
+            if (pages.isOpenEnded()) {
+                int pageCount = countPages(task.pdfUrl());
+                if (pageCount <= 0 || pages.start() > pageCount) {
+                    // Left for the worker, which reports the problem
+                    lines.add(line);
+                    continue;
+                }
+                pages = pages.resolve(pageCount);
+            }
+            if (pages.size() <= pagesPerPart) {
+                lines.add(new TaskLine(task.operation(), task.pdfUrl(), pages, null).format());
+                continue;
+            }
+
+            String id = Long.toString(nextSplitId.incrementAndGet(), 36);
+            int parts = (pages.size() + pagesPerPart - 1) / pagesPerPart;
+            splits.put(id, new Split(id, clientID, task.operation(), task.pdfUrl(), pages, parts));
+            for (int start = pages.start(); start <= pages.end(); start += pagesPerPart) {
+                PageRange part = new PageRange(start, Math.min(start + pagesPerPart - 1, pages.end()));
+                lines.add(new TaskLine(task.operation(), task.pdfUrl(), part, id).format());
+            }
+            System.out.println("Split " + task.operation() + " " + task.pdfUrl() + " pages " + pages + " into " + parts + " parts");
+        }
+        return lines;
+    }
+
+    public static boolean isPartResult(String resultLine) {
+        return resultLine.startsWith("Part: ");
+    }
+
+    /**
+     * Records a chunk's result line ("Part: id <----> ... <----> pages: a-b <----> s3Path: p", or "... error: e").
+     *
+     * @return the split once all of its chunks have reported, otherwise null
+     */
+    public Split recordPart(String resultLine) {
+        String[] fields = resultLine.split(" <----> ");
+        Split split = splits.get(fields[0].substring("Part: ".length()).trim());
+        if (split == null) {
+            System.out.println("Discarding result of unknown part: " + resultLine);
+            return null;
+        }
+        synchronized (split) {
+            String last = fields[fields.length - 1];
+            String pages = field(fields, "pages: ");
+            if (last.startsWith("s3Path: ") && pages != null) {
+                split.partPaths.put(PageRange.parse(pages).start(), last.substring("s3Path: ".length()));
+            } else if (split.error == null) {
+                split.error = "pages " + pages + ": " + (last.startsWith("error: ") ? last.substring("error: ".length()) : last);
+            }
+            split.reported++;
+            if (split.reported < split.parts) {
+                return null;
+            }
+        }
+        splits.remove(split.id);
+        return split;
+    }
+
+    /**
+     * @return true if s3Path is a chunk recorded for a split that has not been merged yet
+     */
+    public boolean isPendingPart(String s3Path) {
+        for (Split split : splits.values()) {
+            synchronized (split) {
+                if (split.partPaths.containsValue(s3Path)) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Drops the splits of a client that completed without all of its chunks (packets that could not be sent).
+     */
+    public void forgetClient(String clientID) {
+        splits.values().removeIf(split -> split.clientID.equals(clientID));
+    }
+
+    private static String field(String[] fields, String name) {
+        for (String field : fields) {
+            if (field.startsWith(name)) {
+                return field.substring(name.length()).trim();
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @return the document's page count, or -1 if it could not be read
+     */
+    private int countPages(String pdfUrl) {
+        Path file = null;
+        try {
+            file = Files.createTempFile("count-", ".pdf");
+            PdfFetcher.Download download = pdfFetcher.openAsync(pdfUrl, file, PROBE_BLOCK_BYTES, 16).join();
+            if (download.rangeSource() != null) {
+                try (PDDocument document = new PDFParser(download.rangeSource(), "", null, null,
+                        IOUtils.createTempFileOnlyStreamCache()).parse(false)) {
+                    return document.getNumberOfPages();
+                } catch (IOException e) {
+                    // Not parseable without the lenient parser, which needs the whole file
+                    download.rangeSource().close();
+                    pdfFetcher.fetch(pdfUrl, file);
+                }
+            }
+            try (PDDocument document = Loader.loadPDF(file.toFile(), IOUtils.createTempFileOnlyStreamCache())) {
+                return document.getNumberOfPages();
+            }
+        } catch (Exception e) {
+            System.err.println("Failed to count the pages of " + pdfUrl + ": " + e.getMessage());
+            return -1;
+        } finally {
+            if (file != null) {
+                try {
+                    Files.deleteIfExists(file);
+                } catch (IOException e) {
+                    System.err.println("Failed to delete scratch file: " + file);
+                }
+            }
+        }
+    }
+}
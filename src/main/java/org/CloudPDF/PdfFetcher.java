@@ -0,0 +1,346 @@
+package org.CloudPDF;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.net.http.HttpTimeoutException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Optional;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Downloads PDFs over one shared {@link HttpClient}, so connections are kept alive and reused (and HTTP/2 is used
+ * where the server offers it). Requests are asynchronous and redirects are followed. At most maxRequestsPerHost
+ * requests run against one host at a time, counting until their body is read; the rest wait their turn without
+ * holding a thread. requestTimeout covers the wait for the response headers and bodyTimeout the whole exchange.
+ */
+public class PdfFetcher {
+    private static final ScheduledThreadPoolExecutor BODY_TIMEOUTS = bodyTimeoutScheduler();
+
+    private final HttpClient httpClient;
+    private final Duration requestTimeout;
+    private final Duration bodyTimeout;
+    private final int maxRequestsPerHost;
+    private final ConcurrentHashMap<String, HostLimiter> hostLimiters = new ConcurrentHashMap<>();
+
+    public PdfFetcher(Duration connectTimeout, Duration requestTimeout, Duration bodyTimeout, int maxRequestsPerHost,
+                      Executor executor) {
+        this.httpClient = HttpClient.newBuilder()
+                .version(HttpClient.Version.HTTP_2)
+                .followRedirects(HttpClient.Redirect.NORMAL)
+                .connectTimeout(connectTimeout)
+                .executor(executor)
+                .build();
+        this.requestTimeout = requestTimeout;
+        this.bodyTimeout = bodyTimeout;
+        this.maxRequestsPerHost = maxRequestsPerHost;
+    }
+
+    public static PdfFetcher fromSystemProperties() {
+        ExecutorService executor = Executors.newCachedThreadPool(DaemonThreads.named("pdf-fetcher"));
+        return new PdfFetcher(
+                Duration.ofMillis(Long.getLong("cloudpdf.fetch.connectTimeoutMillis", 10_000)),
+                Duration.ofMillis(Long.getLong("cloudpdf.fetch.requestTimeoutMillis", 60_000)),
+                Duration.ofMillis(Long.getLong("cloudpdf.fetch.bodyTimeoutMillis", 600_000)),
+                Integer.getInteger("cloudpdf.fetch.maxRequestsPerHost", 4),
+                executor);
+    }
+
+    /**
+     * The result of a download. Either the document was written to file, or it is read lazily through rangeSource.
+     * notModified is set when a conditional request found the caller's copy still current and nothing was written.
+     */
+    public record Download(Path file, HttpRangeSource rangeSource, String eTag, String lastModified,
+                           boolean notModified) {
+    }
+
+    /**
+     * Downloads pdfUrl into target. The returned future fails if the URL is invalid, the request fails or the
+     * final response (after redirects) is not 200.
+     */
+    public CompletableFuture<Path> fetchAsync(String pdfUrl, Path target) {
+        return downloadAsync(pdfUrl, target, null, null).thenApply(Download::file);
+    }
+
+    /**
+     * Downloads pdfUrl into target. When an ETag or Last-Modified value of a copy the caller already holds is
+     * given, the request is conditional, and a 304 answer completes with notModified instead of a new body.
+     */
+    public CompletableFuture<Download> downloadAsync(String pdfUrl, Path target, String eTag, String lastModified) {
+        HttpRequest request;
+        try {
+            if (pdfUrl == null || pdfUrl.isEmpty()) {
+                throw new IllegalArgumentException("Invalid URL: URL is null or empty.");
+            }
+            HttpRequest.Builder builder = HttpRequest.newBuilder(URI.create(pdfUrl))
+                    .timeout(requestTimeout)
+                    .header("Accept-Encoding", "gzip")
+                    .GET();
+            if (eTag != null) {
+                builder.header("If-None-Match", eTag);
+            }
+            if (lastModified != null) {
+                builder.header("If-Modified-Since", lastModified);
+            }
+            request = builder.build();
+        } catch (IllegalArgumentException e) {
+            return CompletableFuture.failedFuture(e);
+        }
+
+        return send(request, HttpResponse.BodyHandlers.ofFile(target))
+                .thenApply(response -> {
+                    if (response.statusCode() == 304 && (eTag != null || lastModified != null)) {
+                        return new Download(target, null, eTag, lastModified, true);
+                    }
+                    try {
+                        return new Download(checkResponse(pdfUrl, response), null, eTag(response),
+                                lastModified(response), false);
+                    } catch (IOException e) {
+                        throw new CompletionException(e);
+                    }
+                });
+    }
+
+    /**
+     * Starts loading pdfUrl for random access. The first request only asks for the first block of the file.
+     * If the server honours the range and the file is bigger than that block, the result carries an
+     * {@link HttpRangeSource} that fetches the other blocks on demand. Otherwise (no range support, or the whole
+     * file fit in the first block) the document is written to target.
+     */
+    public CompletableFuture<Download> openAsync(String pdfUrl, Path target, int blockSize, int maxCachedBlocks) {
+        HttpRequest request;
+        try {
+            if (pdfUrl == null || pdfUrl.isEmpty()) {
+                throw new IllegalArgumentException("Invalid URL: URL is null or empty.");
+            }
+            request = HttpRequest.newBuilder(URI.create(pdfUrl))
+                    .timeout(requestTimeout)
+                    .header("Range", "bytes=0-" + (blockSize - 1))
+                    .GET()
+                    .build();
+        } catch (IllegalArgumentException e) {
+            return CompletableFuture.failedFuture(e);
+        }
+
+        // A range answer is the first block and stays in memory; a full answer is the whole document and goes to file
+        HttpResponse.BodyHandler<byte[]> bodyHandler = responseInfo -> switch (responseInfo.statusCode()) {
+            case 206 -> HttpResponse.BodySubscribers.ofByteArray();
+            case 200 -> HttpResponse.BodySubscribers.mapping(HttpResponse.BodySubscribers.ofFile(target), file -> null);
+            default -> HttpResponse.BodySubscribers.replacing(null);
+        };
+        return send(request, bodyHandler).thenCompose(response -> {
+            try {
+                if (response.statusCode() == 206) {
+                    long totalLength = totalLength(response);
+                    if (totalLength < 0) {
+                        return downloadAsync(pdfUrl, target, null, null);
+                    }
+                    byte[] firstBlock = response.body();
+                    if (totalLength <= firstBlock.length) {
+                        Files.write(target, firstBlock);
+                        return CompletableFuture.completedFuture(
+                                new Download(target, null, eTag(response), lastModified(response), false));
+                    }
+                    HttpRangeSource rangeSource = new HttpRangeSource(this, pdfUrl, validator(response), totalLength,
+                            firstBlock, blockSize, maxCachedBlocks);
+                    return CompletableFuture.completedFuture(
+                            new Download(null, rangeSource, eTag(response), lastModified(response), false));
+                }
+                if (response.statusCode() != 200) {
+                    throw new RuntimeException("Failed to download pdf from URL: " + pdfUrl);
+                }
+                decodeIfCompressed(response, target);
+                return CompletableFuture.completedFuture(
+                        new Download(target, null, eTag(response), lastModified(response), false));
+            } catch (IOException e) {
+                throw new CompletionException(e);
+            }
+        });
+    }
+
+    /**
+     * Asks for the size of pdfUrl with a HEAD request.
+     *
+     * @return a future of the Content-Length, or of -1 if the server did not say or the request failed
+     */
+    public CompletableFuture<Long> contentLengthAsync(String pdfUrl) {
+        HttpRequest request;
+        try {
+            request = HttpRequest.newBuilder(URI.create(pdfUrl))
+                    .timeout(requestTimeout)
+                    .method("HEAD", HttpRequest.BodyPublishers.noBody())
+                    .build();
+        } catch (IllegalArgumentException e) {
+            return CompletableFuture.completedFuture(-1L);
+        }
+        return send(request, HttpResponse.BodyHandlers.discarding())
+                .thenApply(response -> response.statusCode() == 200
+                        ? response.headers().firstValueAsLong("Content-Length").orElse(-1L)
+                        : -1L)
+                .exceptionally(error -> -1L);
+    }
+
+    /**
+     * Fetches the bytes start..end (inclusive) of pdfUrl. When a validator is given the request carries If-Range,
+     * so a document that changed since it was opened fails instead of mixing bytes from two versions.
+     */
+    public byte[] fetchRange(String pdfUrl, long start, long end, String validator) throws IOException {
+        HttpRequest.Builder request = HttpRequest.newBuilder(URI.create(pdfUrl))
+                .timeout(requestTimeout)
+                .header("Range", "bytes=" + start + "-" + end)
+                .GET();
+        if (validator != null) {
+            request.header("If-Range", validator);
+        }
+        // Any other answer (the whole document, if the server ignored the range) is dropped instead of buffered
+        HttpResponse.BodyHandler<byte[]> bodyHandler = responseInfo -> responseInfo.statusCode() == 206
+                ? HttpResponse.BodySubscribers.ofByteArray()
+                : HttpResponse.BodySubscribers.replacing(null);
+        HttpResponse<byte[]> response;
+        try {
+            response = send(request.build(), bodyHandler).join();
+        } catch (CompletionException e) {
+            throw e.getCause() instanceof IOException ioException ? ioException : new IOException(e.getCause());
+        }
+        if (response.statusCode() != 206 || response.body().length != end - start + 1) {
+            throw new IOException("Range request failed (status " + response.statusCode() + ") for URL: " + pdfUrl);
+        }
+        return response.body();
+    }
+
+    private <T> CompletableFuture<HttpResponse<T>> send(HttpRequest request, HttpResponse.BodyHandler<T> bodyHandler) {
+        HostLimiter hostLimiter = hostLimiters.computeIfAbsent(hostKey(request.uri()), host -> new HostLimiter(maxRequestsPerHost));
+        CompletableFuture<HttpResponse<T>> result = new CompletableFuture<>();
+        hostLimiter.submit(() -> {
+            CompletableFuture<HttpResponse<T>> exchange = httpClient.sendAsync(request, bodyHandler);
+            AtomicBoolean timedOut = new AtomicBoolean();
+            ScheduledFuture<?> timeout = BODY_TIMEOUTS.schedule(() -> {
+                timedOut.set(true);
+                exchange.cancel(true);
+            }, bodyTimeout.toMillis(), TimeUnit.MILLISECONDS);
+            exchange.whenComplete((response, error) -> {
+                timeout.cancel(false);
+                hostLimiter.release();
+                if (error != null && timedOut.get()) {
+                    result.completeExceptionally(new HttpTimeoutException(
+                            "No complete response within " + bodyTimeout.toMillis() + " ms from " + request.uri()));
+                } else if (error != null) {
+                    result.completeExceptionally(error instanceof CompletionException ? error.getCause() : error);
+                } else {
+                    result.complete(response);
+                }
+            });
+        });
+        return result;
+    }
+
+    public Path fetch(String pdfUrl, Path target) throws IOException {
+        try {
+            return fetchAsync(pdfUrl, target).join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof IOException ioException) {
+                throw ioException;
+            }
+            throw e.getCause() instanceof RuntimeException runtimeException ? runtimeException : e;
+        }
+    }
+
+    private Path checkResponse(String pdfUrl, HttpResponse<Path> response) throws IOException {
+        if (response.statusCode() != 200) {
+            throw new RuntimeException("Failed to download pdf from URL: " + pdfUrl);
+        }
+        decodeIfCompressed(response, response.body());
+        return response.body();
+    }
+
+    private void decodeIfCompressed(HttpResponse<?> response, Path file) throws IOException {
+        if (response.headers().firstValue("Content-Encoding").orElse("").equalsIgnoreCase("gzip")) {
+            Path decoded = Files.createTempFile(file.getParent(), "decoded-", ".pdf");
+            try (InputStream inputStream = new GZIPInputStream(Files.newInputStream(file))) {
+                Files.copy(inputStream, decoded, StandardCopyOption.REPLACE_EXISTING);
+            }
+            Files.move(decoded, file, StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    private static long totalLength(HttpResponse<?> response) {
+        String contentRange = response.headers().firstValue("Content-Range").orElse("");
+        int slash = contentRange.lastIndexOf('/');
+        if (slash < 0 || contentRange.endsWith("*")) {
+            return -1;
+        }
+        try {
+            return Long.parseLong(contentRange.substring(slash + 1).trim());
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    private static String eTag(HttpResponse<?> response) {
+        return response.headers().firstValue("ETag").orElse(null);
+    }
+
+    private static String lastModified(HttpResponse<?> response) {
+        return response.headers().firstValue("Last-Modified").orElse(null);
+    }
+
+    // If-Range only accepts strong validators, so weak ETags fall back to Last-Modified
+    private static String validator(HttpResponse<?> response) {
+        Optional<String> eTag = response.headers().firstValue("ETag").filter(tag -> !tag.startsWith("W/"));
+        return eTag.orElse(response.headers().firstValue("Last-Modified").orElse(null));
+    }
+
+    private static ScheduledThreadPoolExecutor bodyTimeoutScheduler() {
+        ScheduledThreadPoolExecutor scheduler =
+                new ScheduledThreadPoolExecutor(1, DaemonThreads.named("pdf-fetcher-timeouts"));
+        scheduler.setRemoveOnCancelPolicy(true);
+        return scheduler;
+    }
+
+    private static String hostKey(URI uri) {
+        return uri.getScheme() + "://" + uri.getHost() + ":" + uri.getPort();
+    }
+
+    private static final class HostLimiter {
+        private final Deque<Runnable> waiting = new ArrayDeque<>();
+        private int available;
+
+        HostLimiter(int permits) {
+            this.available = permits;
+        }
+
+        void submit(Runnable request) {
+            synchronized (this) {
+                if (available == 0) {
+                    waiting.add(request);
+                    return;
+                }
+                available--;
+            }
+            request.run();
+        }
+
+        void release() {
+            Runnable next;
+            synchronized (this) {
+                next = waiting.poll();
+                if (next == null) {
+                    available++;
+                }
+            }
+            if (next != null) {
+                next.run();
+            }
+        }
+    }
+}
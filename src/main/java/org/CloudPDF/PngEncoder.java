@@ -0,0 +1,154 @@
+package org.CloudPDF;
+
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+
+/**
+ * Streaming 8-bit RGB or grayscale PNG writer. Rows can be written in several calls (one band at a time), so the
+ * whole image never has to be held in memory. Every row uses the Up filter instead of trying each filter per row
+ * as ImageIO does, and the zlib level is the caller's choice, trading size for speed. Close the encoder when done,
+ * finished or not, to free its zlib memory.
+ */
+public class PngEncoder implements AutoCloseable {
+    private static final byte[] SIGNATURE = {(byte) 0x89, 'P', 'N', 'G', '\r', '\n', 0x1a, '\n'};
+    private static final int IDAT_CHUNK_SIZE = 64 * 1024;
+
+    private final OutputStream outputStream;
+    private final int width;
+    private final int height;
+    private final boolean grayscale;
+    private final int bytesPerPixel;
+    private final Deflater deflater;
+    private final DeflaterOutputStream idatStream;
+    private byte[] previousRow;
+    private byte[] currentRow;
+    private final byte[] filteredRow;
+    private int rowsWritten = 0;
+
+    public PngEncoder(OutputStream outputStream, int width, int height, boolean grayscale, int compressionLevel)
+            throws IOException {
+        this.outputStream = outputStream;
+        this.width = width;
+        this.height = height;
+        this.grayscale = grayscale;
+        this.bytesPerPixel = grayscale ? 1 : 3;
+        this.previousRow = new byte[width * bytesPerPixel];
+        this.currentRow = new byte[width * bytesPerPixel];
+        this.filteredRow = new byte[1 + width * bytesPerPixel];
+
+        outputStream.write(SIGNATURE);
+        ByteArrayOutputStream header = new ByteArrayOutputStream();
+        DataOutputStream headerData = new DataOutputStream(header);
+        headerData.writeInt(width);
+        headerData.writeInt(height);
+        headerData.writeByte(8);
+        headerData.writeByte(grayscale ? 0 : 2);
+        headerData.writeByte(0);
+        headerData.writeByte(0);
+        headerData.writeByte(0);
+        writeChunk("IHDR", header.toByteArray(), 0, header.size());
+        // Created last, so a failed header leaves nothing to release
+        this.deflater = new Deflater(compressionLevel);
+        this.idatStream = new DeflaterOutputStream(new IdatOutputStream(), deflater, IDAT_CHUNK_SIZE);
+    }
+
+    /**
+     * Appends the first rows rows of image, which must be as wide as the PNG.
+     */
+    public void writeRows(BufferedImage image, int rows) throws IOException {
+        int[] pixels = grayscale ? null : new int[width];
+        for (int y = 0; y < rows; y++) {
+            if (rowsWritten == height) {
+                throw new IOException("More rows than the PNG height of " + height);
+            }
+            if (grayscale && image.getType() == BufferedImage.TYPE_BYTE_GRAY) {
+                image.getRaster().getDataElements(0, y, width, 1, currentRow);
+            } else if (grayscale) {
+                int[] samples = image.getRaster().getSamples(0, y, width, 1, 0, (int[]) null);
+                for (int x = 0; x < width; x++) {
+                    currentRow[x] = (byte) samples[x];
+                }
+            } else {
+                if (image.getType() == BufferedImage.TYPE_INT_RGB) {
+                    image.getRaster().getDataElements(0, y, width, 1, pixels);
+                } else {
+                    image.getRGB(0, y, width, 1, pixels, 0, width);
+                }
+                for (int x = 0, i = 0; x < width; x++) {
+                    int rgb = pixels[x];
+                    currentRow[i++] = (byte) (rgb >> 16);
+                    currentRow[i++] = (byte) (rgb >> 8);
+                    currentRow[i++] = (byte) rgb;
+                }
+            }
+
+            filteredRow[0] = 2;
+            for (int i = 0; i < currentRow.length; i++) {
+                filteredRow[i + 1] = (byte) (currentRow[i] - previousRow[i]);
+            }
+            idatStream.write(filteredRow);
+
+            byte[] swap = previousRow;
+            previousRow = currentRow;
+            currentRow = swap;
+            rowsWritten++;
+        }
+    }
+
+    /**
+     * Writes the remaining image data and the end of the PNG. The underlying stream is left open.
+     */
+    public void finish() throws IOException {
+        if (rowsWritten != height) {
+            throw new IOException("Only " + rowsWritten + " of " + height + " PNG rows were written");
+        }
+        idatStream.finish();
+        writeChunk("IEND", new byte[0], 0, 0);
+        outputStream.flush();
+    }
+
+    /**
+     * Frees the zlib memory. The underlying stream is left open.
+     */
+    @Override
+    public void close() {
+        deflater.end();
+    }
+
+    private void writeChunk(String type, byte[] data, int offset, int length) throws IOException {
+        byte[] typeBytes = type.getBytes(StandardCharsets.US_ASCII);
+        CRC32 crc = new CRC32();
+        crc.update(typeBytes);
+        crc.update(data, offset, length);
+        DataOutputStream chunk = new DataOutputStream(outputStream);
+        chunk.writeInt(length);
+        chunk.write(typeBytes);
+        chunk.write(data, offset, length);
+        chunk.writeInt((int) crc.getValue());
+    }
+
+    // Cuts the compressed stream into IDAT chunks
+    private final class IdatOutputStream extends OutputStream {
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[]{(byte) b}, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            while (len > 0) {
+                int chunk = Math.min(len, IDAT_CHUNK_SIZE);
+                writeChunk("IDAT", b, off, chunk);
+                off += chunk;
+                len -= chunk;
+            }
+        }
+    }
+}
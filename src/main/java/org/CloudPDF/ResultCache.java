@@ -0,0 +1,130 @@
+package org.CloudPDF;
+
+import javax.management.ObjectName;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HexFormat;
+import java.util.Optional;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Remembers which artifact was produced for an operation on a given source document, so the same document
+ * submitted again (by any client) can be served by copying that artifact instead of converting it again.
+ * Keys are SHA-256 digests of the operation and the source identity: the URL plus its ETag or Last-Modified
+ * validator, or a digest of the downloaded bytes. Entries older than ttlMillis count as misses and are dropped.
+ * Hit and miss counts are published over JMX as org.CloudPDF:type=ResultCache.
+ */
+public class ResultCache implements ResultCacheMXBean {
+    private final ResultStore store;
+    private final long ttlMillis;
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+
+    public ResultCache(ResultStore store, long ttlMillis) {
+        this.store = store;
+        this.ttlMillis = ttlMillis;
+    }
+
+    public void start() {
+        try {
+            ManagementFactory.getPlatformMBeanServer()
+                    .registerMBean(this, new ObjectName("org.CloudPDF:type=ResultCache"));
+        } catch (Exception e) {
+            System.err.println("Failed to register result cache MBean: " + e.getMessage());
+        }
+    }
+
+    public static String key(String operation, String sourceIdentity) {
+        return digest((operation.toUpperCase() + "\n" + sourceIdentity).getBytes(StandardCharsets.UTF_8));
+    }
+
+    public static String urlIdentity(String pdfUrl, String validator) {
+        return "url:" + pdfUrl + "\n" + validator;
+    }
+
+    public static String contentIdentity(Path pdfFile) throws IOException {
+        MessageDigest messageDigest = sha256();
+        byte[] buffer = new byte[64 * 1024];
+        try (InputStream inputStream = Files.newInputStream(pdfFile)) {
+            int read;
+            while ((read = inputStream.read(buffer)) != -1) {
+                messageDigest.update(buffer, 0, read);
+            }
+        }
+        return "sha256:" + HexFormat.of().formatHex(messageDigest.digest());
+    }
+
+    /**
+     * @return the S3 path of the cached artifact for key, if there is a fresh one
+     */
+    public Optional<String> lookup(String key) {
+        try {
+            Optional<ResultStore.Entry> entry = store.get(key);
+            if (entry.isPresent() && System.currentTimeMillis() - entry.get().createdMillis() > ttlMillis) {
+                store.remove(key);
+                entry = Optional.empty();
+            }
+            (entry.isPresent() ? hits : misses).incrementAndGet();
+            return entry.map(ResultStore.Entry::s3Path);
+        } catch (RuntimeException e) {
+            System.err.println("Result cache lookup failed: " + e.getMessage());
+            misses.incrementAndGet();
+            return Optional.empty();
+        }
+    }
+
+    public void record(String key, String s3Path) {
+        try {
+            store.put(key, s3Path);
+        } catch (RuntimeException e) {
+            System.err.println("Failed to record result cache entry for " + s3Path + ": " + e.getMessage());
+        }
+    }
+
+    /**
+     * Drops an entry whose artifact turned out to be unusable. The lookup that returned it is recounted as a miss.
+     */
+    public void invalidate(String key) {
+        hits.decrementAndGet();
+        misses.incrementAndGet();
+        try {
+            store.remove(key);
+        } catch (RuntimeException e) {
+            System.err.println("Failed to invalidate result cache entry: " + e.getMessage());
+        }
+    }
+
+    private static String digest(byte[] data) {
+        return HexFormat.of().formatHex(sha256().digest(data));
+    }
+
+    private static MessageDigest sha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    @Override
+    public long getHits() {
+        return hits.get();
+    }
+
+    @Override
+    public long getMisses() {
+        return misses.get();
+    }
+
+    @Override
+    public double getHitRate() {
+        long total = hits.get() + misses.get();
+        return total == 0 ? 0 : (double) hits.get() / total;
+    }
+}
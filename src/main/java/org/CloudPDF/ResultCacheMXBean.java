@@ -0,0 +1,9 @@
+package org.CloudPDF;
+
+public interface ResultCacheMXBean {
+    long getHits();
+
+    long getMisses();
+
+    double getHitRate();
+}
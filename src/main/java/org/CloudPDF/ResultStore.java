@@ -0,0 +1,19 @@
+package org.CloudPDF;
+
+import java.util.Optional;
+
+/**
+ * Index behind the {@link ResultCache}: maps a cache key to the S3 path of an artifact that was already produced
+ * for it.
+ */
+public interface ResultStore {
+
+    record Entry(String s3Path, long createdMillis) {
+    }
+
+    Optional<Entry> get(String key);
+
+    void put(String key, String s3Path);
+
+    void remove(String key);
+}
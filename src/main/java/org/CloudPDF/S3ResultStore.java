@@ -0,0 +1,55 @@
+package org.CloudPDF;
+
+import software.amazon.awssdk.core.ResponseBytes;
+import software.amazon.awssdk.core.sync.RequestBody;
+import software.amazon.awssdk.services.s3.S3Client;
+import software.amazon.awssdk.services.s3.model.*;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Optional;
+
+/**
+ * Keeps the cache index in the bucket itself, one small object per key under indexDir whose body is the artifact's
+ * path, so every worker shares it. An S3 lifecycle rule on indexDir can bound its size on top of the cache TTL.
+ */
+public class S3ResultStore implements ResultStore {
+    private final S3Client s3Client;
+    private final String bucketName;
+    private final String indexDir;
+
+    public S3ResultStore(S3Client s3Client, String bucketName, String indexDir) {
+        this.s3Client = s3Client;
+        this.bucketName = bucketName;
+        this.indexDir = indexDir;
+    }
+
+    @Override
+    public Optional<Entry> get(String key) {
+        try {
+            ResponseBytes<GetObjectResponse> object = s3Client.getObjectAsBytes(GetObjectRequest.builder()
+                    .bucket(bucketName)
+                    .key(indexDir + key)
+                    .build());
+            return Optional.of(new Entry(object.asString(StandardCharsets.UTF_8),
+                    object.response().lastModified().toEpochMilli()));
+        } catch (NoSuchKeyException e) {
+            return Optional.empty();
+        }
+    }
+
+    @Override
+    public void put(String key, String s3Path) {
+        s3Client.putObject(PutObjectRequest.builder()
+                .bucket(bucketName)
+                .key(indexDir + key)
+                .build(), RequestBody.fromString(s3Path));
+    }
+
+    @Override
+    public void remove(String key) {
+        s3Client.deleteObject(DeleteObjectRequest.builder()
+                .bucket(bucketName)
+                .key(indexDir + key)
+                .build());
+    }
+}
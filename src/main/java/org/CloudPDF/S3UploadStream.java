@@ -0,0 +1,210 @@
+package org.CloudPDF;
+
+import software.amazon.awssdk.core.sync.RequestBody;
+import software.amazon.awssdk.services.s3.S3Client;
+import software.amazon.awssdk.services.s3.model.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Semaphore;
+
+/**
+ * Output stream that writes straight to an S3 object. Small artifacts are sent with a single putObject once the
+ * stream is closed. As soon as the data outgrows one part the stream switches to a multipart upload and ships each
+ * full part on the upload executor while the writer keeps producing the next one, with at most maxPartsInFlight
+ * parts held in memory. close() does not wait for the upload; use {@link #completion()} for that.
+ */
+public class S3UploadStream extends OutputStream {
+    private static final int INITIAL_BUFFER_SIZE = 64 * 1024;
+
+    private final S3Client s3Client;
+    private final String bucketName;
+    private final String key;
+    private final int partSize;
+    private final Executor uploadExecutor;
+    private final Semaphore partsInFlight;
+    private final List<CompletableFuture<CompletedPart>> parts = new ArrayList<>();
+    private final CompletableFuture<Void> completion = new CompletableFuture<>();
+
+    private byte[] buffer;
+    private int count = 0;
+    private String uploadId;
+    private boolean closed = false;
+
+    public S3UploadStream(S3Client s3Client, String bucketName, String key, int partSize, int maxPartsInFlight,
+                          Executor uploadExecutor) {
+        this.s3Client = s3Client;
+        this.bucketName = bucketName;
+        this.key = key;
+        this.partSize = partSize;
+        this.uploadExecutor = uploadExecutor;
+        this.partsInFlight = new Semaphore(maxPartsInFlight);
+        this.buffer = new byte[Math.min(INITIAL_BUFFER_SIZE, partSize)];
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        ensureOpen();
+        if (count == buffer.length) {
+            makeRoom();
+        }
+        buffer[count++] = (byte) b;
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        ensureOpen();
+        while (len > 0) {
+            if (count == buffer.length) {
+                makeRoom();
+            }
+            int chunk = Math.min(len, buffer.length - count);
+            System.arraycopy(b, off, buffer, count, chunk);
+            count += chunk;
+            off += chunk;
+            len -= chunk;
+        }
+    }
+
+    /**
+     * Finishes the object: the remaining bytes are sent and the upload is completed in the background.
+     */
+    @Override
+    public void close() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        try {
+            if (uploadId == null) {
+                byte[] data = buffer;
+                int length = count;
+                CompletableFuture.runAsync(() -> s3Client.putObject(PutObjectRequest.builder()
+                                        .bucket(bucketName)
+                                        .key(key)
+                                        .build(),
+                                RequestBody.fromContentProvider(() -> new ByteArrayInputStream(data, 0, length), length,
+                                        "application/octet-stream")), uploadExecutor)
+                        .whenComplete(this::finish);
+            } else {
+                if (count > 0) {
+                    uploadPart();
+                }
+                CompletableFuture.allOf(parts.toArray(new CompletableFuture<?>[0]))
+                        .thenRun(this::completeMultipartUpload)
+                        .whenComplete(this::finish);
+            }
+        } catch (Exception e) {
+            finish(null, e);
+        }
+        buffer = null;
+    }
+
+    /**
+     * Stops the upload without creating the object.
+     */
+    public void abort() {
+        closed = true;
+        buffer = null;
+        abortMultipartUpload();
+        completion.completeExceptionally(new IOException("Upload aborted: " + key));
+    }
+
+    public CompletableFuture<Void> completion() {
+        return completion;
+    }
+
+    private void ensureOpen() throws IOException {
+        if (closed) {
+            throw new IOException("Stream closed: " + key);
+        }
+    }
+
+    private void makeRoom() throws IOException {
+        if (buffer.length < partSize) {
+            buffer = Arrays.copyOf(buffer, Math.min(buffer.length * 2, partSize));
+            return;
+        }
+        if (uploadId == null) {
+            uploadId = s3Client.createMultipartUpload(CreateMultipartUploadRequest.builder()
+                    .bucket(bucketName)
+                    .key(key)
+                    .build()).uploadId();
+        }
+        uploadPart();
+        buffer = new byte[partSize];
+    }
+
+    private void uploadPart() throws IOException {
+        try {
+            partsInFlight.acquire();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while waiting to upload a part of " + key, e);
+        }
+        byte[] data = buffer;
+        int length = count;
+        int partNumber = parts.size() + 1;
+        count = 0;
+        parts.add(CompletableFuture.supplyAsync(() -> {
+            try {
+                UploadPartResponse response = s3Client.uploadPart(UploadPartRequest.builder()
+                                .bucket(bucketName)
+                                .key(key)
+                                .uploadId(uploadId)
+                                .partNumber(partNumber)
+                                .build(),
+                        RequestBody.fromContentProvider(() -> new ByteArrayInputStream(data, 0, length), length,
+                                "application/octet-stream"));
+                return CompletedPart.builder().partNumber(partNumber).eTag(response.eTag()).build();
+            } finally {
+                partsInFlight.release();
+            }
+        }, uploadExecutor));
+    }
+
+    private void completeMultipartUpload() {
+        List<CompletedPart> completedParts = parts.stream()
+                .map(CompletableFuture::join)
+                .sorted(Comparator.comparing(CompletedPart::partNumber))
+                .toList();
+        s3Client.completeMultipartUpload(CompleteMultipartUploadRequest.builder()
+                .bucket(bucketName)
+                .key(key)
+                .uploadId(uploadId)
+                .multipartUpload(CompletedMultipartUpload.builder().parts(completedParts).build())
+                .build());
+    }
+
+    private void finish(Void ignored, Throwable error) {
+        if (error == null) {
+            System.out.println("File uploaded to S3 at: " + key);
+            completion.complete(null);
+        } else {
+            abortMultipartUpload();
+            completion.completeExceptionally(error);
+        }
+    }
+
+    private void abortMultipartUpload() {
+        if (uploadId == null) {
+            return;
+        }
+        try {
+            s3Client.abortMultipartUpload(AbortMultipartUploadRequest.builder()
+                    .bucket(bucketName)
+                    .key(key)
+                    .uploadId(uploadId)
+                    .build());
+        } catch (S3Exception e) {
+            System.err.println("Failed to abort multipart upload of " + key + ": " + e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,44 @@
+package org.CloudPDF;
+
+/**
+ * Decides how many workers the Manager should run. The Manager asks on a fixed tick and starts or drains workers to
+ * match the answer. The policy is picked with cloudpdf.scaling.policy: "backlog" (default, see
+ * {@link BacklogScalingPolicy}) or "packets" (one worker per outstanding packet).
+ */
+public interface ScalingPolicy {
+
+    /**
+     * What the Manager sees at a tick.
+     *
+     * @param workers          workers running or booting, not counting those being drained
+     * @param readyWorkers     those of the workers known to have finished booting
+     * @param queuedPackets    packets waiting in the worker queues
+     * @param inFlightPackets  packets received by a worker and not yet acknowledged
+     * @param backlogPackets   packets the fair scheduler has not released yet
+     * @param completedPackets packets reported since the previous tick
+     */
+    record Inputs(long nowMillis, int workers, int readyWorkers, long queuedPackets, long inFlightPackets, long backlogPackets,
+                  long completedPackets) {
+
+        public long outstandingPackets() {
+            return queuedPackets + inFlightPackets + backlogPackets;
+        }
+    }
+
+    int desiredWorkers(Inputs inputs);
+
+    static ScalingPolicy fromSystemProperties() {
+        return named(System.getProperty("cloudpdf.scaling.policy", "backlog"));
+    }
+
+    /**
+     * @throws IllegalArgumentException if there is no policy of that name
+     */
+    static ScalingPolicy named(String name) {
+        return switch (name) {
+            case "backlog" -> BacklogScalingPolicy.fromSystemProperties();
+            case "packets" -> inputs -> (int) Math.min(Integer.MAX_VALUE, inputs.outstandingPackets());
+            default -> throw new IllegalArgumentException("Unknown scaling policy: " + name);
+        };
+    }
+}
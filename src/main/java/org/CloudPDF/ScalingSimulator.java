@@ -0,0 +1,412 @@
+package org.CloudPDF;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Replays a workload trace offline through the Manager's packing, lane routing, fair scheduling and scaling policy,
+ * with simulated time instead of AWS, so scaling and scheduling settings can be compared before they are deployed.
+ * <p>
+ * A trace line is "arrivalSeconds,clientId,operation,pdfUrl,sizeBytes[,pages]"; blank lines and lines starting with
+ * '#' are skipped. The lines of one client with the same arrival time form one job, like one task file.
+ * Workers take cloudpdf.sim.bootSeconds to boot and run up to cloudpdf.worker.maxPacketsInFlight packets at once,
+ * pulling from the lanes by their weights. Downloads overlap; conversions share cloudpdf.sim.workerCpus. A task costs
+ * its size over cloudpdf.sim.bytesPerMilli plus cloudpdf.sim.millisPerPage.&lt;OPERATION&gt; per page, scaled by
+ * random noise of cloudpdf.sim.noise. The policy is asked every cloudpdf.scaling.tickSeconds, and scale-in drains
+ * busy workers like the Manager does. Page splitting and failures are not simulated.
+ * <p>
+ * Usage: ScalingSimulator trace.csv [tasksPerPacket]. cloudpdf.sim.policies lists the policies to compare, comma
+ * separated; each gets the same trace and noise. The report gives the makespan, job latency percentiles overall and
+ * per client, and the instance-minutes spent.
+ */
+public class ScalingSimulator {
+    private static final long MAX_IDLE_MILLIS = TimeUnit.HOURS.toMillis(24);
+
+    record TraceTask(long arrivalMillis, String clientId, String operation, String pdfUrl, long sizeBytes, int pages) {
+
+        String taskLine() {
+            return operation + " " + pdfUrl + (pages > 1 ? " 1-" + pages : "");
+        }
+    }
+
+    private static final class Job {
+        final String id;
+        final String clientId;
+        final long arrivalMillis;
+        final List<String> tasks = new ArrayList<>();
+        int remainingPackets;
+        long doneMillis = -1;
+
+        Job(String id, String clientId, long arrivalMillis) {
+            this.id = id;
+            this.clientId = clientId;
+            this.arrivalMillis = arrivalMillis;
+        }
+    }
+
+    private static final class SimWorker {
+        final long startMillis;
+        final long readyMillis;
+        final long[] cpuFreeMillis;
+        final Map<TaskLane, Integer> credits = new EnumMap<>(TaskLane.class);
+        int busy = 0;
+        boolean draining = false;
+        long stopMillis = -1;
+
+        SimWorker(long startMillis, long readyMillis, int cpus) {
+            this.startMillis = startMillis;
+            this.readyMillis = readyMillis;
+            this.cpuFreeMillis = new long[cpus];
+        }
+    }
+
+    private record SimPacket(Job job, String body) {
+    }
+
+    private record Event(long timeMillis, long sequence, Runnable action) {
+    }
+
+    private final String policyName;
+    private final List<TraceTask> trace;
+    private final int tasksPerPacket;
+    private final Map<String, Long> sizes = new HashMap<>();
+    private final long bootMillis = TimeUnit.SECONDS.toMillis(Long.getLong("cloudpdf.sim.bootSeconds", 60));
+    private final long tickMillis = TimeUnit.SECONDS.toMillis(Integer.getInteger("cloudpdf.scaling.tickSeconds", 15));
+    private final int maxWorkers = Integer.getInteger("cloudpdf.sim.maxWorkers", 8);
+    private final int workerSlots = Integer.getInteger("cloudpdf.worker.maxPacketsInFlight", 4);
+    private final int workerCpus = Integer.getInteger("cloudpdf.sim.workerCpus", 1);
+    private final double bytesPerMilli = Double.parseDouble(System.getProperty("cloudpdf.sim.bytesPerMilli", "5000"));
+    private final double noise = Double.parseDouble(System.getProperty("cloudpdf.sim.noise", "0.2"));
+    private final Random random = new Random(Long.getLong("cloudpdf.sim.seed", 1));
+
+    private final PriorityQueue<Event> events = new PriorityQueue<>(
+            Comparator.comparingLong(Event::timeMillis).thenComparingLong(Event::sequence));
+    private final Map<TaskLane, Deque<SimPacket>> laneQueues = new EnumMap<>(TaskLane.class);
+    private final Map<String, Job> jobs = new LinkedHashMap<>();
+    private final List<SimWorker> workers = new ArrayList<>();
+    private final TaskCostEstimator costEstimator;
+    private final PacketPacker packetPacker;
+    private final FairScheduler fairScheduler;
+    private final ScalingPolicy scalingPolicy;
+    private long now = 0;
+    private long sequence = 0;
+    private long runningPackets = 0;
+    private long completedPackets = 0;
+    private long totalPackets = 0;
+    private int peakWorkers = 0;
+
+    public ScalingSimulator(String policyName, List<TraceTask> trace, int tasksPerPacket) {
+        this.policyName = policyName;
+        this.trace = trace;
+        this.tasksPerPacket = tasksPerPacket;
+        for (TraceTask task : trace) {
+            sizes.put(task.pdfUrl(), task.sizeBytes());
+        }
+        // Sizes come from the trace instead of HEAD requests
+        this.costEstimator = new TaskCostEstimator(null, 0) {
+            @Override
+            public Map<String, Long> contentLengths(Collection<String> pdfUrls) {
+                Map<String, Long> contentLengths = new HashMap<>();
+                for (String pdfUrl : pdfUrls) {
+                    contentLengths.put(pdfUrl, sizes.getOrDefault(pdfUrl, -1L));
+                }
+                return contentLengths;
+            }
+        };
+        this.packetPacker = PacketPacker.fromSystemProperties(tasksPerPacket, costEstimator);
+        this.fairScheduler = new FairScheduler(
+                Integer.getInteger("cloudpdf.manager.maxPacketsInFlight", 100),
+                Integer.getInteger("cloudpdf.manager.maxClientPacketsInFlight", 100),
+                this::queuePackets);
+        this.scalingPolicy = ScalingPolicy.named(policyName);
+        for (TaskLane lane : TaskLane.values()) {
+            laneQueues.put(lane, new ArrayDeque<>());
+        }
+    }
+
+    /**
+     * Reads a trace file.
+     *
+     * @throws IllegalArgumentException naming the first line that is not a valid trace line
+     */
+    public static List<TraceTask> readTrace(Path traceFile) throws IOException {
+        List<TraceTask> trace = new ArrayList<>();
+        List<String> lines = Files.readAllLines(traceFile);
+        for (int i = 0; i < lines.size(); i++) {
+            String line = lines.get(i).trim();
+            if (line.isEmpty() || line.startsWith("#") || (i == 0 && line.startsWith("arrival"))) {
+                continue;
+            }
+            String[] fields = line.split("\\s*,\\s*");
+            try {
+                if (fields.length < 5 || fields.length > 6) {
+                    throw new IllegalArgumentException("expected 5 or 6 fields");
+                }
+                trace.add(new TraceTask(Math.round(Double.parseDouble(fields[0]) * 1000), fields[1], fields[2],
+                        fields[3], Long.parseLong(fields[4]), fields.length == 6 ? Integer.parseInt(fields[5]) : 1));
+            } catch (IllegalArgumentException e) {
+                throw new IllegalArgumentException("Invalid trace line " + (i + 1) + ": " + line + " (" + e.getMessage() + ")");
+            }
+        }
+        trace.sort(Comparator.comparingLong(TraceTask::arrivalMillis));
+        return trace;
+    }
+
+    /**
+     * Runs the trace to the end, until every job is done and the policy has let every worker go (or a day has passed
+     * without that), and returns the report.
+     */
+    public String run() {
+        for (TraceTask task : trace) {
+            String jobId = task.clientId() + "@" + task.arrivalMillis();
+            Job job = jobs.get(jobId);
+            if (job == null) {
+                job = new Job(jobId, task.clientId(), task.arrivalMillis());
+                jobs.put(jobId, job);
+                Job arriving = job;
+                schedule(job.arrivalMillis, () -> arrive(arriving));
+            }
+            job.tasks.add(task.taskLine());
+        }
+        long firstArrival = trace.isEmpty() ? 0 : trace.get(0).arrivalMillis();
+        long lastArrival = trace.isEmpty() ? 0 : trace.get(trace.size() - 1).arrivalMillis();
+        now = firstArrival;
+        schedule(firstArrival + tickMillis, this::tick);
+
+        while (!events.isEmpty()) {
+            Event event = events.poll();
+            now = event.timeMillis();
+            if (now > lastArrival && allJobsDone() && (liveWorkers() == 0 || now - lastDoneMillis() > MAX_IDLE_MILLIS)) {
+                break;
+            }
+            event.action().run();
+        }
+        for (SimWorker worker : workers) {
+            if (worker.stopMillis < 0) {
+                worker.stopMillis = now;
+            }
+        }
+        return report(firstArrival);
+    }
+
+    private void schedule(long timeMillis, Runnable action) {
+        events.add(new Event(timeMillis, sequence++, action));
+    }
+
+    // Mirrors Manager.sendTasksToWorkers: route tasks to lanes, pack each lane, and hand the packets to the scheduler
+    private void arrive(Job job) {
+        Map<TaskLane, List<String>> laneTasks = new EnumMap<>(TaskLane.class);
+        for (String task : job.tasks) {
+            laneTasks.computeIfAbsent(TaskLane.of(TaskLine.parse(task)), lane -> new ArrayList<>()).add(task);
+        }
+        Map<TaskLane, List<String>> lanePackets = new EnumMap<>(TaskLane.class);
+        laneTasks.forEach((lane, tasks) -> lanePackets.put(lane, packetPacker.pack(String.join("\n", tasks))));
+        job.remainingPackets = lanePackets.values().stream().mapToInt(List::size).sum();
+        totalPackets += job.remainingPackets;
+        if (job.remainingPackets == 0) {
+            job.doneMillis = now;
+            return;
+        }
+        fairScheduler.submit(job.id, lanePackets);
+    }
+
+    private int queuePackets(String jobId, TaskLane lane, List<String> packets) {
+        Job job = jobs.get(jobId);
+        for (String packet : packets) {
+            laneQueues.get(lane).add(new SimPacket(job, packet));
+        }
+        dispatch();
+        return packets.size();
+    }
+
+    private void dispatch() {
+        for (SimWorker worker : workers) {
+            while (worker.stopMillis < 0 && !worker.draining && worker.readyMillis <= now && worker.busy < workerSlots) {
+                TaskLane lane = nextLane(worker);
+                if (lane == null) {
+                    break;
+                }
+                start(worker, laneQueues.get(lane).poll());
+            }
+        }
+    }
+
+    // Smooth weighted round-robin over the lanes that have packets, as the worker polls them
+    private TaskLane nextLane(SimWorker worker) {
+        TaskLane best = null;
+        int totalWeight = 0;
+        for (TaskLane lane : TaskLane.values()) {
+            if (laneQueues.get(lane).isEmpty()) {
+                continue;
+            }
+            int credit = worker.credits.merge(lane, lane.weight(), Integer::sum);
+            totalWeight += lane.weight();
+            if (best == null || credit > worker.credits.get(best)) {
+                best = lane;
+            }
+        }
+        if (best != null) {
+            worker.credits.merge(best, -totalWeight, Integer::sum);
+        }
+        return best;
+    }
+
+    private void start(SimWorker worker, SimPacket packet) {
+        worker.busy++;
+        runningPackets++;
+        StringBuilder timings = new StringBuilder();
+        long downloadMillis = 0;
+        long convertMillis = 0;
+        Set<String> fetched = new HashSet<>();
+        for (String line : packet.body().split("\n")) {
+            TaskLine task = TaskLine.parse(line);
+            if (task == null) {
+                continue;
+            }
+            if (fetched.add(task.pdfUrl())) {
+                long bytes = sizes.getOrDefault(task.pdfUrl(), 0L);
+                long millis = jitter(bytes / bytesPerMilli);
+                downloadMillis = Math.max(downloadMillis, millis);
+                timings.append(TaskCostEstimator.fetchTiming(task.pdfUrl(), bytes, millis)).append('\n');
+            }
+            int pages = task.pages() == null ? 1 : task.pages().size();
+            double millisPerPage = Double.parseDouble(System.getProperty(
+                    "cloudpdf.sim.millisPerPage." + task.operation().toUpperCase(),
+                    task.operation().equalsIgnoreCase("ToImage") ? "600" : "150"));
+            long millis = jitter(millisPerPage * pages);
+            convertMillis += millis;
+            timings.append(TaskCostEstimator.convertTiming(task.operation(), pages, millis)).append('\n');
+        }
+        int cpu = 0;
+        for (int i = 1; i < worker.cpuFreeMillis.length; i++) {
+            if (worker.cpuFreeMillis[i] < worker.cpuFreeMillis[cpu]) {
+                cpu = i;
+            }
+        }
+        long doneMillis = Math.max(now + downloadMillis, worker.cpuFreeMillis[cpu]) + convertMillis;
+        worker.cpuFreeMillis[cpu] = doneMillis;
+        schedule(doneMillis, () -> finish(worker, packet, timings.toString()));
+    }
+
+    private long jitter(double millis) {
+        return Math.max(1, Math.round(millis * Math.exp(noise * random.nextGaussian())));
+    }
+
+    private void finish(SimWorker worker, SimPacket packet, String timings) {
+        worker.busy--;
+        runningPackets--;
+        completedPackets++;
+        costEstimator.recordTimings(timings);
+        if (--packet.job().remainingPackets == 0) {
+            packet.job().doneMillis = now;
+        }
+        if (worker.draining && worker.busy == 0) {
+            worker.stopMillis = now;
+        }
+        fairScheduler.complete(List.of(packet.job().id));
+        dispatch();
+    }
+
+    // Mirrors Manager.scaleWorkers and syncWorkerCount
+    private void tick() {
+        long queued = laneQueues.values().stream().mapToLong(Deque::size).sum();
+        List<SimWorker> active = workers.stream().filter(worker -> worker.stopMillis < 0 && !worker.draining).toList();
+        int ready = (int) active.stream().filter(worker -> worker.readyMillis <= now).count();
+        int desired = Math.max(0, scalingPolicy.desiredWorkers(new ScalingPolicy.Inputs(now, active.size(), ready,
+                queued, runningPackets, fairScheduler.getBacklog(), completedPackets)));
+        completedPackets = 0;
+
+        if (desired > active.size()) {
+            int toStart = Math.min(desired - active.size(), maxWorkers - liveWorkers());
+            for (int i = 0; i < toStart; i++) {
+                SimWorker worker = new SimWorker(now, now + bootMillis, Math.max(1, workerCpus));
+                workers.add(worker);
+                schedule(worker.readyMillis, this::dispatch);
+            }
+            peakWorkers = Math.max(peakWorkers, liveWorkers());
+        } else if (desired < active.size()) {
+            // Like WorkerRegistry.pickForRemoval: booting and idle workers go first, busy ones are drained
+            List<SimWorker> candidates = new ArrayList<>(active);
+            candidates.sort(Comparator.comparing((SimWorker worker) -> worker.readyMillis <= now)
+                    .thenComparingInt(worker -> worker.busy));
+            for (SimWorker worker : candidates.subList(0, active.size() - desired)) {
+                if (worker.busy == 0) {
+                    worker.stopMillis = now;
+                } else {
+                    worker.draining = true;
+                }
+            }
+        }
+        schedule(now + tickMillis, this::tick);
+    }
+
+    private int liveWorkers() {
+        return (int) workers.stream().filter(worker -> worker.stopMillis < 0).count();
+    }
+
+    private boolean allJobsDone() {
+        return jobs.values().stream().allMatch(job -> job.doneMillis >= 0);
+    }
+
+    private long lastDoneMillis() {
+        return jobs.values().stream().mapToLong(job -> job.doneMillis).max().orElse(0);
+    }
+
+    private String report(long firstArrival) {
+        StringBuilder report = new StringBuilder();
+        Map<String, List<Long>> latenciesByClient = new TreeMap<>();
+        List<Long> latencies = new ArrayList<>();
+        for (Job job : jobs.values()) {
+            if (job.doneMillis >= 0) {
+                long latency = job.doneMillis - job.arrivalMillis;
+                latencies.add(latency);
+                latenciesByClient.computeIfAbsent(job.clientId, client -> new ArrayList<>()).add(latency);
+            }
+        }
+        double instanceMinutes = workers.stream()
+                .mapToLong(worker -> worker.stopMillis - worker.startMillis).sum() / 60_000.0;
+
+        report.append("Policy ").append(policyName).append(": ").append(jobs.size()).append(" jobs, ")
+                .append(totalPackets).append(" packets of up to ").append(tasksPerPacket).append(" tasks\n");
+        if (latencies.size() < jobs.size()) {
+            report.append("  ").append(jobs.size() - latencies.size()).append(" jobs did not finish\n");
+        }
+        report.append(String.format("  makespan %.1fs, instance-minutes %.1f, %d launches, peak %d workers%n",
+                (lastDoneMillis() - firstArrival) / 1000.0, instanceMinutes, workers.size(), peakWorkers));
+        report.append("  job latency ").append(percentiles(latencies)).append('\n');
+        latenciesByClient.forEach((client, clientLatencies) -> report.append("    ").append(client).append(" (")
+                .append(clientLatencies.size()).append(" jobs) ").append(percentiles(clientLatencies)).append('\n'));
+        return report.toString();
+    }
+
+    private static String percentiles(List<Long> latencies) {
+        List<Long> sorted = new ArrayList<>(latencies);
+        Collections.sort(sorted);
+        return String.format("p50 %.1fs, p90 %.1fs, p99 %.1fs, max %.1fs", percentile(sorted, 50) / 1000.0,
+                percentile(sorted, 90) / 1000.0, percentile(sorted, 99) / 1000.0, percentile(sorted, 100) / 1000.0);
+    }
+
+    // Nearest-rank percentile of a sorted list
+    private static long percentile(List<Long> sorted, int percent) {
+        if (sorted.isEmpty()) {
+            return 0;
+        }
+        int rank = (int) Math.ceil(percent / 100.0 * sorted.size());
+        return sorted.get(Math.max(0, rank - 1));
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length < 1) {
+            System.err.println("Usage: ScalingSimulator trace.csv [tasksPerPacket]");
+            System.exit(1);
+        }
+        List<TraceTask> trace = readTrace(Path.of(args[0]));
+        int tasksPerPacket = args.length > 1 ? Integer.parseInt(args[1]) : 5;
+        for (String policy : System.getProperty("cloudpdf.sim.policies", "backlog,packets").split(",")) {
+            System.out.println(new ScalingSimulator(policy.trim(), trace, tasksPerPacket).run());
+        }
+    }
+}
@@ -0,0 +1,289 @@
+package org.CloudPDF;
+
+import org.apache.pdfbox.io.RandomAccessRead;
+import org.apache.pdfbox.io.RandomAccessReadBufferedFile;
+import org.apache.pdfbox.io.RandomAccessReadMemoryMappedFile;
+
+import javax.management.ObjectName;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Local disk cache of downloaded source PDFs, kept under maxBytes by evicting the least recently used document.
+ * A copy validated less than freshMillis ago is served without touching the network. An older copy is revalidated
+ * with a conditional GET (If-None-Match / If-Modified-Since), and is still served if the origin cannot be reached.
+ * Files handed out are pinned until {@link #release(Path)}, so eviction never deletes a document that is being read.
+ * Hits, misses and bytes saved are published over JMX as org.CloudPDF:type=SourceCache.
+ */
+public class SourceCache implements SourceCacheMXBean {
+    private static final int MAX_RANGE_LOADED_URLS = 4096;
+    private final Path dir;
+    private final long maxBytes;
+    private final long freshMillis;
+    private final PdfFetcher pdfFetcher;
+    private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private final Map<Path, Entry> pinnedFiles = new HashMap<>();
+    // Most recently range-loaded URLs, which are not in the cache because only parts of them were read
+    private final LinkedHashMap<String, Boolean> rangeLoadedUrls = new LinkedHashMap<>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Boolean> eldest) {
+            return size() > MAX_RANGE_LOADED_URLS;
+        }
+    };
+    private long bytesCached = 0;
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong revalidations = new AtomicLong();
+    private final AtomicLong bytesSaved = new AtomicLong();
+
+    private static final class Entry {
+        final Path file;
+        final long size;
+        final String eTag;
+        final String lastModified;
+        long validatedMillis;
+        int pins = 0;
+        boolean removed = false;
+
+        Entry(Path file, long size, String eTag, String lastModified) {
+            this.file = file;
+            this.size = size;
+            this.eTag = eTag;
+            this.lastModified = lastModified;
+            this.validatedMillis = System.currentTimeMillis();
+        }
+    }
+
+    public SourceCache(Path dir, long maxBytes, long freshMillis, PdfFetcher pdfFetcher) throws IOException {
+        this.dir = dir;
+        this.maxBytes = maxBytes;
+        this.freshMillis = freshMillis;
+        this.pdfFetcher = pdfFetcher;
+        // The index lives in memory only, so whatever a previous process left behind is unusable
+        Files.createDirectories(dir);
+        try (var files = Files.list(dir)) {
+            for (Path file : (Iterable<Path>) files::iterator) {
+                Files.deleteIfExists(file);
+            }
+        }
+    }
+
+    public void start() {
+        try {
+            ManagementFactory.getPlatformMBeanServer()
+                    .registerMBean(this, new ObjectName("org.CloudPDF:type=SourceCache"));
+        } catch (Exception e) {
+            System.err.println("Failed to register source cache MBean: " + e.getMessage());
+        }
+        System.out.println("Source cache: " + dir + " (" + maxBytes / (1024 * 1024) + " MB)");
+    }
+
+    /**
+     * Returns the cached copy of pdfUrl, revalidating it first if it is no longer fresh. The returned file is
+     * pinned and must be handed back with {@link #release(Path)}.
+     *
+     * @return a future of the cached file, or of null if pdfUrl is not cached
+     */
+    public CompletableFuture<Path> getAsync(String pdfUrl) {
+        Entry entry;
+        synchronized (this) {
+            entry = entries.get(pdfUrl);
+            if (entry == null) {
+                misses.incrementAndGet();
+                return CompletableFuture.completedFuture(null);
+            }
+            entry.pins++;
+            pinnedFiles.put(entry.file, entry);
+            if (System.currentTimeMillis() - entry.validatedMillis < freshMillis) {
+                hit(entry);
+                return CompletableFuture.completedFuture(entry.file);
+            }
+        }
+        return revalidate(pdfUrl, entry);
+    }
+
+    /**
+     * Asks whether a document that missed the cache should be range-loaded. A URL is range-loaded the first time
+     * it is seen; seen again, it is worth downloading in full so later requests are served from the cache.
+     *
+     * @return true to range-load pdfUrl, false to download it in full
+     */
+    public synchronized boolean shouldRangeLoad(String pdfUrl) {
+        return rangeLoadedUrls.put(pdfUrl, Boolean.TRUE) == null;
+    }
+
+    private CompletableFuture<Path> revalidate(String pdfUrl, Entry entry) {
+        revalidations.incrementAndGet();
+        Path target;
+        try {
+            target = Files.createTempFile(dir, "download-", ".pdf");
+        } catch (IOException e) {
+            return CompletableFuture.failedFuture(e);
+        }
+        return pdfFetcher.downloadAsync(pdfUrl, target, entry.eTag, entry.lastModified).handle((download, error) -> {
+            if (error == null && !download.notModified()) {
+                // The document changed: the new copy replaces the old one
+                release(entry.file);
+                misses.incrementAndGet();
+                Path file = put(pdfUrl, target, download.eTag(), download.lastModified());
+                if (file == null) {
+                    invalidate(pdfUrl, entry);
+                    deleteQuietly(target);
+                }
+                return file;
+            }
+            deleteQuietly(target);
+            if (error != null) {
+                System.out.println("Revalidation of " + pdfUrl + " failed, serving the cached copy: " + error.getMessage());
+            }
+            synchronized (this) {
+                entry.validatedMillis = System.currentTimeMillis();
+                hit(entry);
+            }
+            return entry.file;
+        });
+    }
+
+    private void hit(Entry entry) {
+        hits.incrementAndGet();
+        bytesSaved.addAndGet(entry.size);
+    }
+
+    /**
+     * Moves a freshly downloaded file into the cache, evicting older documents to stay within the budget.
+     * The cached file is pinned as with {@link #getAsync(String)}.
+     *
+     * @return the cached file, or null if the document was not cached (downloadedFile is then left in place)
+     */
+    public Path put(String pdfUrl, Path downloadedFile, String eTag, String lastModified) {
+        Path file;
+        long size;
+        try {
+            size = Files.size(downloadedFile);
+            if (size > maxBytes) {
+                return null;
+            }
+            file = Files.createTempFile(dir, "source-", ".pdf");
+            Files.move(downloadedFile, file, StandardCopyOption.REPLACE_EXISTING);
+        } catch (IOException e) {
+            System.err.println("Failed to cache " + pdfUrl + ": " + e.getMessage());
+            return null;
+        }
+
+        synchronized (this) {
+            Entry entry = new Entry(file, size, eTag, lastModified);
+            entry.pins++;
+            pinnedFiles.put(file, entry);
+            Entry previous = entries.put(pdfUrl, entry);
+            if (previous != null) {
+                remove(previous);
+            }
+            bytesCached += size;
+            Iterator<Entry> leastRecentlyUsed = entries.values().iterator();
+            while (bytesCached > maxBytes && leastRecentlyUsed.hasNext()) {
+                Entry eldest = leastRecentlyUsed.next();
+                if (eldest != entry) {
+                    leastRecentlyUsed.remove();
+                    remove(eldest);
+                }
+            }
+        }
+        return file;
+    }
+
+    /**
+     * Unpins a file handed out by {@link #getAsync(String)} or {@link #put}.
+     */
+    public void release(Path file) {
+        boolean delete;
+        synchronized (this) {
+            Entry entry = pinnedFiles.get(file);
+            if (entry == null) {
+                return;
+            }
+            entry.pins--;
+            if (entry.pins > 0) {
+                return;
+            }
+            pinnedFiles.remove(file);
+            delete = entry.removed;
+        }
+        if (delete) {
+            deleteQuietly(file);
+        }
+    }
+
+    /**
+     * Opens a cached file for PDFBox. Files that fit in a single mapping are memory-mapped, so reads are served
+     * from the page cache without copying through a heap buffer.
+     */
+    public static RandomAccessRead open(Path file) throws IOException {
+        if (Files.size(file) <= Integer.MAX_VALUE) {
+            return new RandomAccessReadMemoryMappedFile(file);
+        }
+        return new RandomAccessReadBufferedFile(file);
+    }
+
+    private synchronized void invalidate(String pdfUrl, Entry entry) {
+        if (entries.remove(pdfUrl, entry)) {
+            remove(entry);
+        }
+    }
+
+    // Called with the lock held; the file is deleted now, or on its last release if it is still being read
+    private void remove(Entry entry) {
+        entry.removed = true;
+        bytesCached -= entry.size;
+        if (entry.pins == 0) {
+            deleteQuietly(entry.file);
+        }
+    }
+
+    private static void deleteQuietly(Path file) {
+        try {
+            Files.deleteIfExists(file);
+        } catch (IOException e) {
+            System.err.println("Failed to delete cached file: " + file);
+        }
+    }
+
+    @Override
+    public long getHits() {
+        return hits.get();
+    }
+
+    @Override
+    public long getMisses() {
+        return misses.get();
+    }
+
+    @Override
+    public double getHitRate() {
+        long total = hits.get() + misses.get();
+        return total == 0 ? 0 : (double) hits.get() / total;
+    }
+
+    @Override
+    public long getRevalidations() {
+        return revalidations.get();
+    }
+
+    @Override
+    public long getBytesSaved() {
+        return bytesSaved.get();
+    }
+
+    @Override
+    public synchronized long getBytesCached() {
+        return bytesCached;
+    }
+}
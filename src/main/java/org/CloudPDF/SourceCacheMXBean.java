@@ -0,0 +1,15 @@
+package org.CloudPDF;
+
+public interface SourceCacheMXBean {
+    long getHits();
+
+    long getMisses();
+
+    double getHitRate();
+
+    long getRevalidations();
+
+    long getBytesSaved();
+
+    long getBytesCached();
+}
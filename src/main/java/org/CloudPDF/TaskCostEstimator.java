@@ -0,0 +1,124 @@
+package org.CloudPDF;
+
+import java.net.URI;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Estimates how long a task takes on a worker, so packets can be balanced by time instead of line count.
+ * A document costs its download (Content-Length from a HEAD request over the host's observed throughput) plus,
+ * per operation, the observed milliseconds per page of that operation times the number of pages.
+ * Throughput and per-page costs start from rough defaults and follow the timings workers report with their results
+ * as exponentially weighted moving averages.
+ */
+public class TaskCostEstimator {
+    private static final double ALPHA = 0.2;
+    private static final long DEFAULT_CONTENT_LENGTH = 1024 * 1024;
+    private static final double DEFAULT_BYTES_PER_MILLI = 5_000;
+    private static final Map<String, Double> DEFAULT_MILLIS_PER_PAGE = Map.of(
+            "TOTEXT", 150.0,
+            "TOHTML", 150.0,
+            "TOIMAGE", 600.0);
+
+    private final PdfFetcher pdfFetcher;
+    private final long headTimeoutMillis;
+    private final ConcurrentHashMap<String, Double> bytesPerMilliByHost = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<String, Double> millisPerPageByOperation = new ConcurrentHashMap<>(DEFAULT_MILLIS_PER_PAGE);
+
+    public TaskCostEstimator(PdfFetcher pdfFetcher, long headTimeoutMillis) {
+        this.pdfFetcher = pdfFetcher;
+        this.headTimeoutMillis = headTimeoutMillis;
+    }
+
+    /**
+     * Looks up the sizes of the given documents with concurrent HEAD requests. Documents whose size is not known
+     * within headTimeoutMillis are left out.
+     */
+    public Map<String, Long> contentLengths(Collection<String> pdfUrls) {
+        Map<String, CompletableFuture<Long>> requests = new HashMap<>();
+        for (String pdfUrl : pdfUrls) {
+            requests.put(pdfUrl, pdfFetcher.contentLengthAsync(pdfUrl));
+        }
+        try {
+            CompletableFuture.allOf(requests.values().toArray(new CompletableFuture<?>[0]))
+                    .get(headTimeoutMillis, TimeUnit.MILLISECONDS);
+        } catch (Exception e) {
+            System.out.println("Some document sizes are unknown, using defaults: " + e);
+        }
+        Map<String, Long> contentLengths = new HashMap<>();
+        requests.forEach((pdfUrl, request) -> {
+            Long contentLength = request.getNow(-1L);
+            if (contentLength > 0) {
+                contentLengths.put(pdfUrl, contentLength);
+            }
+        });
+        return contentLengths;
+    }
+
+    /**
+     * @param contentLength the document's size, or -1 if unknown
+     */
+    public long downloadMillis(String pdfUrl, long contentLength) {
+        double bytesPerMilli = bytesPerMilliByHost.getOrDefault(host(pdfUrl), DEFAULT_BYTES_PER_MILLI);
+        return Math.round((contentLength > 0 ? contentLength : DEFAULT_CONTENT_LENGTH) / bytesPerMilli);
+    }
+
+    public long convertMillis(TaskLine task) {
+        int pages = task.pages() == null || task.pages().isOpenEnded() ? 1 : task.pages().size();
+        double millisPerPage = millisPerPageByOperation.getOrDefault(task.operation().toUpperCase(),
+                DEFAULT_MILLIS_PER_PAGE.get("TOIMAGE"));
+        return Math.round(millisPerPage * pages);
+    }
+
+    /**
+     * Timing line for a completed download, to be reported back with the packet.
+     */
+    public static String fetchTiming(String pdfUrl, long bytes, long millis) {
+        return "fetch " + host(pdfUrl) + " " + bytes + " " + millis;
+    }
+
+    /**
+     * Timing line for a completed conversion, to be reported back with the packet.
+     */
+    public static String convertTiming(String operation, int pages, long millis) {
+        return "convert " + operation.toUpperCase() + " " + pages + " " + millis;
+    }
+
+    /**
+     * Folds the timing lines a worker reported into the estimates. Malformed lines are ignored.
+     */
+    public void recordTimings(String timings) {
+        for (String timing : timings.split("\n")) {
+            String[] fields = timing.trim().split(" ");
+            try {
+                if (fields.length == 4 && fields[0].equals("fetch")) {
+                    long bytes = Long.parseLong(fields[2]);
+                    long millis = Math.max(1, Long.parseLong(fields[3]));
+                    bytesPerMilliByHost.merge(fields[1], (double) bytes / millis, TaskCostEstimator::average);
+                } else if (fields.length == 4 && fields[0].equals("convert")
+                        && DEFAULT_MILLIS_PER_PAGE.containsKey(fields[1])) {
+                    int pages = Math.max(1, Integer.parseInt(fields[2]));
+                    long millis = Long.parseLong(fields[3]);
+                    millisPerPageByOperation.merge(fields[1], (double) millis / pages, TaskCostEstimator::average);
+                }
+            } catch (NumberFormatException e) {
+                // Ignored, as documented
+            }
+        }
+    }
+
+    private static double average(double previous, double sample) {
+        return (1 - ALPHA) * previous + ALPHA * sample;
+    }
+
+    private static String host(String pdfUrl) {
+        try {
+            String host = URI.create(pdfUrl).getHost();
+            return host != null ? host.toLowerCase() : "";
+        } catch (IllegalArgumentException e) {
+            return "";
+        }
+    }
+}
@@ -0,0 +1,55 @@
+package org.CloudPDF;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Worker queues by weight of work. Text and HTML conversions are light; rendering pages to images is heavy and has
+ * a queue of its own, so a large rendering batch does not hold up clients that only want text.
+ * Workers read every lane they serve, preferring each in proportion to its weight
+ * (cloudpdf.worker.weight.light / .heavy), or serve a single lane when given that role.
+ */
+public enum TaskLane {
+    LIGHT("manager2workers", 3),
+    HEAVY("manager2workers-heavy", 1);
+
+    private final String queueName;
+    private final int defaultWeight;
+
+    TaskLane(String queueName, int defaultWeight) {
+        this.queueName = queueName;
+        this.defaultWeight = defaultWeight;
+    }
+
+    public String queueName() {
+        return queueName;
+    }
+
+    public int weight() {
+        return Math.max(1, Integer.getInteger("cloudpdf.worker.weight." + name().toLowerCase(), defaultWeight));
+    }
+
+    /**
+     * Invalid lines go to the light lane, where they are reported without any work.
+     */
+    public static TaskLane of(TaskLine taskLine) {
+        return taskLine != null && taskLine.operation().equalsIgnoreCase("ToImage") ? HEAVY : LIGHT;
+    }
+
+    /**
+     * Parses a worker role: "all", or a comma separated list of lane names such as "light" or "heavy".
+     */
+    public static List<TaskLane> parse(String lanes) {
+        if (lanes.trim().equalsIgnoreCase("all")) {
+            return List.of(values());
+        }
+        List<TaskLane> result = new ArrayList<>();
+        for (String lane : lanes.split(",")) {
+            TaskLane taskLane = valueOf(lane.trim().toUpperCase());
+            if (!result.contains(taskLane)) {
+                result.add(taskLane);
+            }
+        }
+        return result;
+    }
+}
@@ -0,0 +1,39 @@
+package org.CloudPDF;
+
+/**
+ * One line of a task file or worker packet: "operation url [pages] [part:id]".
+ * Without pages only the first page is processed, as before page ranges existed. The part marker is added by the
+ * Manager when it splits a long range into chunks for several workers; the worker then writes a raw chunk that
+ * the Manager merges into the document's artifact.
+ */
+public record TaskLine(String operation, String pdfUrl, PageRange pages, String partId) {
+
+    private static final String PART_PREFIX = "part:";
+
+    /**
+     * @return the parsed line, or null if it is not a valid task line
+     */
+    public static TaskLine parse(String line) {
+        String[] taskParts = line.trim().split("\\s+");
+        if (taskParts.length < 2 || taskParts.length > 4) {
+            return null;
+        }
+        try {
+            PageRange pages = taskParts.length > 2 ? PageRange.parse(taskParts[2]) : null;
+            String partId = null;
+            if (taskParts.length == 4) {
+                if (!taskParts[3].startsWith(PART_PREFIX)) {
+                    return null;
+                }
+                partId = taskParts[3].substring(PART_PREFIX.length());
+            }
+            return new TaskLine(taskParts[0], taskParts[1], pages, partId);
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+    }
+
+    public String format() {
+        return operation + " " + pdfUrl + (pages != null ? " " + pages : "") + (partId != null ? " " + PART_PREFIX + partId : "");
+    }
+}
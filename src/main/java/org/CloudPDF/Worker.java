@@ -1,23 +1,85 @@
 package org.CloudPDF;
 
+import org.apache.pdfbox.Loader;
+import org.apache.pdfbox.cos.COSDictionary;
+import org.apache.pdfbox.io.MemoryUsageSetting;
+import org.apache.pdfbox.pdfparser.PDFParser;
 import org.apache.pdfbox.pdmodel.PDDocument;
-import org.apache.pdfbox.rendering.ImageType;
-import org.apache.pdfbox.rendering.PDFRenderer;
+import org.apache.pdfbox.pdmodel.PDPage;
 import org.apache.pdfbox.text.PDFTextStripper;
 import software.amazon.awssdk.services.sqs.model.Message;
+import software.amazon.awssdk.services.sqs.model.MessageAttributeValue;
 
-import javax.imageio.ImageIO;
-
-import java.awt.image.BufferedImage;
 import java.io.*;
-import java.net.HttpURLConnection;
-import java.net.URL;
-import java.nio.channels.ScatteringByteChannel;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
 import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.*;
+import java.util.zip.Deflater;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
 
 public class Worker extends AWS {
-    private static final int pageIndex = 1;
-    private boolean shouldTerminate = false;
+    private static final int WAIT_TIME_SECONDS = 20;
+    private static final String METADATA_URL = "http://169.254.169.254/latest/";
+    private final int prefetchCount = Integer.getInteger("cloudpdf.worker.prefetch", SQS_BATCH_SIZE);
+    private final int fetchThreads = Integer.getInteger("cloudpdf.worker.fetchThreads", 4);
+    private final int convertThreads = Integer.getInteger("cloudpdf.worker.convertThreads",
+            Runtime.getRuntime().availableProcessors());
+    private final int uploadThreads = Integer.getInteger("cloudpdf.worker.uploadThreads", 4);
+    private final int stageQueueCapacity = Integer.getInteger("cloudpdf.worker.stageQueueCapacity", 8);
+    private final int maxPacketsInFlight = Integer.getInteger("cloudpdf.worker.maxPacketsInFlight", 4);
+    private final Semaphore packetSlots = new Semaphore(maxPacketsInFlight);
+    private final ConcurrentLinkedQueue<FinishedPacket> finishedPackets = new ConcurrentLinkedQueue<>();
+    private final List<TaskLane> lanes = TaskLane.parse(System.getProperty("cloudpdf.worker.lanes", "all"));
+    private final int[] laneCredits = new int[TaskLane.values().length];
+    private final ThreadPoolExecutor fetchStage = newStage("fetch", fetchThreads);
+    private final ThreadPoolExecutor convertStage = newStage("convert", convertThreads);
+    private final ThreadPoolExecutor uploadStage = newStage("upload", uploadThreads);
+    private final ConcurrencyController concurrencyController = new ConcurrencyController(
+            Integer.getInteger("cloudpdf.worker.initialConcurrency", 2), 1, fetchThreads + convertThreads + uploadThreads,
+            Integer.getInteger("cloudpdf.worker.concurrencySampleMillis", 2000));
+    private final Path scratchDir = Paths.get(System.getProperty("cloudpdf.worker.scratchDir",
+            System.getProperty("java.io.tmpdir")));
+    private final PdfFetcher pdfFetcher = PdfFetcher.fromSystemProperties();
+    private final boolean rangeLoading = Boolean.parseBoolean(System.getProperty("cloudpdf.worker.rangeLoading", "true"));
+    private final int rangeBlockBytes = Integer.getInteger("cloudpdf.worker.rangeBlockBytes", 256 * 1024);
+    private final int rangeCachedBlocks = Integer.getInteger("cloudpdf.worker.rangeCachedBlocks", 64);
+    private final long pdfMainMemoryBytes = Long.getLong("cloudpdf.worker.pdfMainMemoryBytes", 16L * 1024 * 1024);
+    private final long sourceCacheBytes = Long.getLong("cloudpdf.worker.sourceCacheBytes", 1024L * 1024 * 1024);
+    private final long sourceCacheFreshMillis = TimeUnit.SECONDS.toMillis(Long.getLong("cloudpdf.worker.sourceCacheFreshSeconds", 300));
+    private SourceCache sourceCache;
+    private final ImageRenderer imageRenderer = ImageRenderer.fromSystemProperties();
+    private final String resultCacheStore = System.getProperty("cloudpdf.cache.store", "s3");
+    private final long resultCacheTtlMillis = TimeUnit.HOURS.toMillis(Long.getLong("cloudpdf.cache.ttlHours", 24 * 7));
+    private ResultCache resultCache;
+    private final PacketLeases packetLeases = new PacketLeases(
+            Integer.getInteger("cloudpdf.worker.visibilityTimeoutSeconds", 120),
+            Integer.getInteger("cloudpdf.worker.heartbeatSeconds", 40),
+            Integer.getInteger("cloudpdf.worker.stuckSeconds", 900),
+            (queueUrl, messages, timeoutSeconds) -> changeMessageVisibility(queueUrl, messages, timeoutSeconds));
+    private final int statusSeconds = Integer.getInteger("cloudpdf.worker.statusSeconds", 15);
+    private final ScheduledExecutorService statusReporter =
+            Executors.newSingleThreadScheduledExecutor(DaemonThreads.named("worker-status"));
+    private String instanceId;
+    private String controlQueueUrl;
+    private String lastStatus;
+    private long lastStatusMillis;
+    private volatile boolean draining = false;
+    private volatile boolean shouldTerminate = false;
 
     public Worker() {
         connectAWS();
@@ -29,181 +91,847 @@ public class Worker extends AWS {
         }
     }
 
+    /**
+     * Creates a pipeline stage: a fixed number of threads fed by a bounded queue. Handing work to a full stage
+     * blocks the caller, so a slow stage holds back the one before it and, in the end, the SQS receive loop.
+     */
+    private ThreadPoolExecutor newStage(String name, int threads) {
+        ThreadPoolExecutor stage = new ThreadPoolExecutor(threads, threads, 0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(stageQueueCapacity), DaemonThreads.named(name + "-stage"),
+                (runnable, executor) -> {
+                    try {
+                        executor.getQueue().put(runnable);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        throw new RejectedExecutionException("Interrupted while waiting for the " + name + " stage", e);
+                    }
+                });
+        stage.prestartAllCoreThreads();
+        return stage;
+    }
+
     public void run() {
         System.out.println("Worker is running...");
-        while (!shouldTerminate) {
-            Message managerMessage = receiveMessageFromQueue(manager2workersUrl);
-            if (managerMessage != null) {
-                System.out.println("Received message");
-                handleManagerMessage(managerMessage);
+        concurrencyController.start();
+        packetLeases.start();
+        startStatusReports();
+        resultCache = createResultCache();
+        sourceCache = createSourceCache();
+        while (!shouldTerminate && !draining) {
+            acknowledgeFinishedPackets();
+            int slots = acquirePacketSlots();
+            if (slots == 0) {
+                break;
+            }
+            if (draining) {
+                packetSlots.release(slots);
+                break;
+            }
+            Map.Entry<TaskLane, List<Message>> received = receivePackets(slots);
+            List<Message> packets = received.getValue();
+            packetSlots.release(slots - packets.size());
+            if (!packets.isEmpty()) {
+                System.out.println("Received " + packets.size() + " packets");
+            }
+            for (Message managerMessage : packets) {
+                try {
+                    packetLeases.hold(laneUrl(received.getKey()), managerMessage);
+                    handleManagerMessage(managerMessage, laneUrl(received.getKey()));
+                } catch (RuntimeException e) {
+                    // The packet is handed back unacknowledged so another attempt can pick it up
+                    handleError(e, "Failed to handle packet " + managerMessage.messageId());
+                    packetLeases.release(managerMessage);
+                    packetSlots.release();
+                }
+            }
+        }
+        if (draining) {
+            // Every slot comes back once the packets still held have been reported
+            packetSlots.acquireUninterruptibly(maxPacketsInFlight);
+        }
+        acknowledgeFinishedPackets();
+        if (draining) {
+            statusReporter.shutdown();
+            try {
+                statusReporter.awaitTermination(WAIT_TIME_SECONDS, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
             }
+            sendStatus(WorkerRegistry.State.DRAINED, 0, true);
+            System.out.println("Worker drained, waiting to be terminated");
+        }
+    }
+
+    /**
+     * Starts reporting this worker's status to the manager and watching its control queue for a drain request.
+     * Reports go out when the status changes, and at least once a minute.
+     */
+    private void startStatusReports() {
+        instanceId = lookUpInstanceId();
+        if (instanceId == null || sqsClient == null) {
+            System.out.println("No instance ID, status reports disabled");
+            return;
         }
+        controlQueueUrl = getOrCreateQueueUrl(WorkerRegistry.controlQueueName(instanceId));
+        statusReporter.scheduleWithFixedDelay(this::reportStatus, 0, statusSeconds, TimeUnit.SECONDS);
     }
 
-    private void handleManagerMessage(Message managerMessage) {
+    private void reportStatus() {
         try {
-            StringBuilder returnMessage = new StringBuilder();
-            String clientID = getClientIdFromMessage(managerMessage);
-            String s3PathDir = customerFilesDir + clientID + "/";
-            for (String line : managerMessage.body().split("\n")) {
-                if (line.trim().isEmpty()) {
-                    System.out.println("Skipping invalid task line.");
-                    continue;
+            List<Message> controls = receiveMessagesFromQueue(controlQueueUrl, SQS_BATCH_SIZE, 0);
+            for (Message control : controls) {
+                if (control.body().trim().equals("DRAIN") && !draining) {
+                    System.out.println("Draining: no new packets, finishing the " + packetLeases.held() + " held");
+                    draining = true;
                 }
+            }
+            if (!controls.isEmpty()) {
+                deleteMessagesFromQueue(controlQueueUrl, controls);
+            }
+            int held = packetLeases.held();
+            sendStatus(held > 0 ? WorkerRegistry.State.BUSY : WorkerRegistry.State.IDLE, held, false);
+        } catch (RuntimeException e) {
+            System.err.println("Failed to report worker status: " + e.getMessage());
+        }
+    }
 
-                if (line.contains("MD5OfMessageAttributes") || line.contains("MessageAttributes")) {
-                    System.out.println("Skipping metadata line: " + line);
-                    continue; // Skip metadata lines entirely //here
-                }
+    private synchronized void sendStatus(WorkerRegistry.State state, int packetsInFlight, boolean force) {
+        if (instanceId == null) {
+            return;
+        }
+        String status = WorkerRegistry.statusLine(instanceId, state, packetsInFlight);
+        long now = System.currentTimeMillis();
+        if (force || !status.equals(lastStatus) || now - lastStatusMillis >= TimeUnit.MINUTES.toMillis(1)) {
+            sendMessageToQueue(workersStatusUrl, status, instanceId);
+            lastStatus = status;
+            lastStatusMillis = now;
+        }
+    }
 
-                String[] taskParts = line.split("\\s+");
-                if (taskParts.length != 2) {
-                    returnMessage.append("invalid task line format: ").append(line).append("\n");
-                    continue;
-                }
-                String operation = taskParts[0].trim();
-                String pdfUrl = taskParts[1].trim();
-                try {
-                    String pdfName = extractPdfName(pdfUrl);
-                    ByteArrayOutputStream pdfData = downloadPdf(pdfUrl);
-
-                    String s3UploadPath = processPdfAndUpload(operation, pdfData, pdfName, s3PathDir);
-                    returnMessage.append("Operation: ").append(operation)
-                            .append(" <----> URL: ").append(pdfUrl)
-                            .append(" <----> s3Path: ").append(s3UploadPath).append("\n'");
-
-                } catch (Exception e) {
-                    returnMessage.append("Operation: ").append(operation)
-                            .append(" <----> URL: ").append(pdfUrl)
-                            .append(" <----> error: ").append(e.getMessage()).append("\n'");
+    /**
+     * Takes the instance ID from cloudpdf.worker.instanceId or, on EC2, from the instance metadata service (IMDSv2).
+     *
+     * @return the ID, or null when it cannot be found
+     */
+    private static String lookUpInstanceId() {
+        String instanceId = System.getProperty("cloudpdf.worker.instanceId");
+        if (instanceId != null) {
+            return instanceId;
+        }
+        HttpClient httpClient = HttpClient.newBuilder().connectTimeout(Duration.ofSeconds(2)).build();
+        try {
+            HttpResponse<String> token = httpClient.send(HttpRequest.newBuilder(URI.create(METADATA_URL + "api/token"))
+                    .timeout(Duration.ofSeconds(2))
+                    .header("X-aws-ec2-metadata-token-ttl-seconds", "300")
+                    .PUT(HttpRequest.BodyPublishers.noBody())
+                    .build(), HttpResponse.BodyHandlers.ofString());
+            HttpResponse<String> response = httpClient.send(HttpRequest.newBuilder(URI.create(METADATA_URL + "meta-data/instance-id"))
+                    .timeout(Duration.ofSeconds(2))
+                    .header("X-aws-ec2-metadata-token", token.body())
+                    .GET()
+                    .build(), HttpResponse.BodyHandlers.ofString());
+            return token.statusCode() == 200 && response.statusCode() == 200 ? response.body().trim() : null;
+        } catch (IOException e) {
+            return null;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return null;
+        }
+    }
+
+    /**
+     * Picks the cache index from cloudpdf.cache.store: "s3" (shared by all workers), "memory" (this worker only)
+     * or "none".
+     */
+    private ResultCache createResultCache() {
+        ResultStore store = switch (resultCacheStore) {
+            case "none" -> null;
+            case "memory" -> new MemoryResultStore(Integer.getInteger("cloudpdf.cache.memoryEntries", 10_000));
+            default -> s3Client == null
+                    ? new MemoryResultStore(Integer.getInteger("cloudpdf.cache.memoryEntries", 10_000))
+                    : new S3ResultStore(s3Client, bucketName, resultCacheDir);
+        };
+        if (store == null) {
+            return null;
+        }
+        ResultCache cache = new ResultCache(store, resultCacheTtlMillis);
+        cache.start();
+        return cache;
+    }
+
+    private SourceCache createSourceCache() {
+        if (sourceCacheBytes <= 0) {
+            return null;
+        }
+        try {
+            SourceCache cache = new SourceCache(scratchDir.resolve("source-cache"), sourceCacheBytes,
+                    sourceCacheFreshMillis, pdfFetcher);
+            cache.start();
+            return cache;
+        } catch (IOException e) {
+            System.err.println("Source cache disabled: " + e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * Blocks until the pipeline can take another packet, then takes up to a full prefetch of free packet slots.
+     *
+     * @return the number of slots taken, or 0 if interrupted
+     */
+    private int acquirePacketSlots() {
+        try {
+            packetSlots.acquire();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return 0;
+        }
+        int slots = 1 + packetSlots.drainPermits();
+        int wanted = Math.min(prefetchCount, SQS_BATCH_SIZE);
+        if (slots > wanted) {
+            packetSlots.release(slots - wanted);
+            slots = wanted;
+        }
+        return slots;
+    }
+
+    /**
+     * Reads packets from the lanes this worker serves. The lanes are tried without waiting, starting with the one
+     * whose turn it is in smooth weighted round-robin order, so busy lanes share the reads by weight and an idle lane
+     * never holds up a busy one. When every lane is empty the preferred one is long-polled.
+     *
+     * @return the lane the packets came from, with the packets
+     */
+    private Map.Entry<TaskLane, List<Message>> receivePackets(int slots) {
+        TaskLane preferred = nextLane();
+        if (lanes.size() > 1) {
+            List<TaskLane> order = new ArrayList<>(lanes);
+            order.remove(preferred);
+            order.add(0, preferred);
+            for (TaskLane lane : order) {
+                List<Message> packets = receiveMessagesFromQueue(laneUrl(lane), slots, 0,
+                        packetLeases.visibilityTimeoutSeconds());
+                if (!packets.isEmpty()) {
+                    return Map.entry(lane, packets);
                 }
             }
+        }
+        return Map.entry(preferred,
+                receiveMessagesFromQueue(laneUrl(preferred), slots, WAIT_TIME_SECONDS / lanes.size(),
+                        packetLeases.visibilityTimeoutSeconds()));
+    }
+
+    private TaskLane nextLane() {
+        TaskLane next = null;
+        int totalWeight = 0;
+        for (TaskLane lane : lanes) {
+            laneCredits[lane.ordinal()] += lane.weight();
+            totalWeight += lane.weight();
+            if (next == null || laneCredits[lane.ordinal()] > laneCredits[next.ordinal()]) {
+                next = lane;
+            }
+        }
+        laneCredits[next.ordinal()] -= totalWeight;
+        return next;
+    }
+
+    private String laneUrl(TaskLane lane) {
+        return laneUrls.getOrDefault(lane, manager2workersUrl);
+    }
+
+    private record FinishedPacket(String queueUrl, Message message) {
+    }
+
+    private void acknowledgeFinishedPackets() {
+        Map<String, List<Message>> batches = new HashMap<>();
+        FinishedPacket finished;
+        while ((finished = finishedPackets.poll()) != null) {
+            packetLeases.drop(finished.message());
+            batches.computeIfAbsent(finished.queueUrl(), queueUrl -> new ArrayList<>()).add(finished.message());
+        }
+        batches.forEach(this::deleteMessagesFromQueue);
+    }
+
+    private void handleManagerMessage(Message managerMessage, String queueUrl) {
+        String clientID = getClientIdFromMessage(managerMessage);
+        String s3PathDir = customerFilesDir + clientID + "/";
+        List<CompletableFuture<String>> taskResults = new ArrayList<>();
+        Map<String, Source> sources = new LinkedHashMap<>();
+        List<String> timings = Collections.synchronizedList(new ArrayList<>());
+        List<TaskLine> taskLines = new ArrayList<>();
+        for (String line : managerMessage.body().split("\n")) {
+            if (line.trim().isEmpty()) {
+                System.out.println("Skipping invalid task line.");
+                continue;
+            }
+
+            if (line.contains("MD5OfMessageAttributes") || line.contains("MessageAttributes")) {
+                System.out.println("Skipping metadata line: " + line);
+                continue; // Skip metadata lines entirely //here
+            }
+
+            TaskLine taskLine = TaskLine.parse(line);
+            if (taskLine == null) {
+                taskResults.add(CompletableFuture.completedFuture("invalid task line format: " + line + "\n"));
+                continue;
+            }
+            taskLines.add(taskLine);
+            // Operations on the same URL share one download and one parsed document; a repeated line shares the result
+            Source source = sources.computeIfAbsent(taskLine.pdfUrl(), pdfUrl -> new Source(pdfUrl, timings));
+            Task task = source.tasks.computeIfAbsent(taskLine.format().toUpperCase(),
+                    key -> new Task(taskLine, s3PathDir, managerMessage.messageId()));
+            taskResults.add(task.result);
+        }
+        // Range reads block the convert thread, which only pays off when a sliver of each document is needed
+        boolean firstPagesOnly = taskLines.stream()
+                .allMatch(taskLine -> taskLine.pages() == null || taskLine.pages().equals(PageRange.FIRST_PAGE));
+        List<CompletableFuture<?>> packetDone = new ArrayList<>(taskResults);
+        for (Source source : sources.values()) {
+            source.rangeLoading = rangeLoading && firstPagesOnly;
+            source.tasks.values().forEach(task ->
+                    task.result.whenComplete((result, error) -> packetLeases.progress(managerMessage)));
+            packetDone.add(source.closed);
+            fetchStage.execute(() -> fetch(source));
+        }
+
+        // Sources are waited for as well, so the fetch timings of range-loaded documents make it into the report
+        CompletableFuture.allOf(packetDone.toArray(new CompletableFuture<?>[0]))
+                .whenComplete((ignored, error) -> finishPacket(managerMessage, queueUrl, clientID, taskResults, timings));
+    }
+
+    /**
+     * Reports the packet's results, with the fetch and convert timings of its tasks attached for the manager's
+     * cost estimates.
+     */
+    private void finishPacket(Message managerMessage, String queueUrl, String clientID,
+                              List<CompletableFuture<String>> taskResults, List<String> timings) {
+        try {
+            if (!packetLeases.isHeld(managerMessage)) {
+                System.out.println("Dropping the result of packet " + managerMessage.messageId()
+                        + ", which was released to other workers");
+                return;
+            }
+            // Results are joined in line order so the summary stays deterministic
+            StringBuilder returnMessage = new StringBuilder();
+            for (CompletableFuture<String> taskResult : taskResults) {
+                returnMessage.append(taskResult.join());
+            }
 //            String sanitizedMessage = returnMessage.toString() //here
 //                    .replaceAll(".*MD5OfMessageAttributes.*", "")  // Remove specific metadata lines
 //                    .replaceAll(".*MessageAttributes.*", "")      // Remove any other metadata-related lines
 //                    .trim();
 //            sendMessageToQueue(workers2managerUrl, sanitizedMessage, clientID);
 
-            sendMessageToQueue(workers2managerUrl, returnMessage.toString(), clientID); //here
-            deleteMessageFromQueue(manager2workersUrl, managerMessage);
+            String timingLines;
+            synchronized (timings) {
+                timingLines = String.join("\n", timings);
+            }
+            Map<String, String> attributes = new HashMap<>();
+            attributes.put("timings", timingLines);
+            // Echoed so the manager can tell the first result of a packet from a backup copy's
+            MessageAttributeValue packetId = managerMessage.messageAttributes().get("packetId");
+            if (packetId != null) {
+                attributes.put("packetId", packetId.stringValue());
+            }
+            sendMessageToQueue(workers2managerUrl, returnMessage.toString(), clientID, attributes); //here
+            finishedPackets.add(new FinishedPacket(queueUrl, managerMessage));
+            if (finishedPackets.size() >= SQS_BATCH_SIZE) {
+                acknowledgeFinishedPackets();
+            }
+        } catch (Exception e) {
+            handleError(e, "Failed to report packet " + managerMessage.messageId());
+        } finally {
+            packetSlots.release();
+        }
+    }
+
+    /**
+     * One PDF of a packet together with every operation the packet asks for on it.
+     */
+    private static final class Source {
+        final String pdfUrl;
+        final Map<String, Task> tasks = new LinkedHashMap<>();
+        final List<String> timings;
+        final CompletableFuture<Void> closed = new CompletableFuture<>();
+        boolean rangeLoading;
+        Path pdfFile;
+        Path cachedFile;
+        HttpRangeSource rangeSource;
+        long openMillis;
+
+        Source(String pdfUrl, List<String> timings) {
+            this.pdfUrl = pdfUrl;
+            this.timings = timings;
+        }
+    }
 
+    private static final class Task {
+        final String operation;
+        final String pdfUrl;
+        final PageRange pages;
+        final String partId;
+        final String s3PathDir;
+        // The SQS message the task came in, which tells a packet's backup copies apart
+        final String messageId;
+        final CompletableFuture<String> result = new CompletableFuture<>();
+        String s3UploadPath;
+        String cacheKey;
+
+        Task(TaskLine taskLine, String s3PathDir, String messageId) {
+            this.operation = taskLine.operation();
+            this.pdfUrl = taskLine.pdfUrl();
+            this.pages = taskLine.pages();
+            this.partId = taskLine.partId();
+            this.s3PathDir = s3PathDir;
+            this.messageId = messageId;
+        }
+    }
+
+    /**
+     * Admits the source and starts its download. The request runs asynchronously on the fetcher, which hands the
+     * downloaded file to the convert stage, so fetch threads are never parked on a slow origin.
+     * A document in the source cache is served from disk. Otherwise, with range loading on for the source, only
+     * the first block is requested up front; if the server supports ranges the document is then read lazily from an
+     * {@link HttpRangeSource} instead of being downloaded in full. Full downloads are added to the source cache, and a
+     * URL that was range-loaded before is downloaded in full so that it gets cached.
+     */
+    private void fetch(Source source) {
+        try {
+            concurrencyController.acquire();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            fail(source, e);
+            return;
+        }
+        CompletableFuture.allOf(source.tasks.values().stream().map(task -> task.result).toArray(CompletableFuture[]::new))
+                .whenComplete((ignored, error) -> concurrencyController.release());
+        try {
+            for (Task task : source.tasks.values()) {
+                try {
+                    task.s3UploadPath = task.s3PathDir + outputFileName(task, extractPdfName(task.pdfUrl));
+                } catch (IllegalArgumentException e) {
+                    task.result.complete(errorLine(task, e));
+                }
+            }
+            if (source.tasks.values().stream().allMatch(task -> task.result.isDone())) {
+                closeSource(source);
+                return;
+            }
+            CompletableFuture<Path> cachedFile = sourceCache == null
+                    ? CompletableFuture.completedFuture(null)
+                    : sourceCache.getAsync(source.pdfUrl);
+            cachedFile.thenCompose(file -> {
+                source.cachedFile = file;
+                if (file != null) {
+                    return CompletableFuture.completedFuture(null);
+                }
+                if (source.rangeLoading && sourceCache != null) {
+                    source.rangeLoading = sourceCache.shouldRangeLoad(source.pdfUrl);
+                }
+                return download(source);
+            }).whenComplete((ignored, error) -> {
+                if (error != null) {
+                    fail(source, error);
+                    return;
+                }
+                try {
+                    convertStage.execute(() -> convert(source));
+                } catch (RejectedExecutionException e) {
+                    fail(source, e);
+                }
+            });
         } catch (Exception e) {
-            throw new RuntimeException("Failed to process the manager message.", e);
+            fail(source, e);
         }
     }
 
-    private String extractPdfName(String pdfUrl) {
-        if (pdfUrl == null || pdfUrl.isEmpty())
-            throw new IllegalArgumentException("Invalid URL: URL is null or empty.");
-        String fileName = pdfUrl.substring(pdfUrl.lastIndexOf("/") + 1);
-        if (fileName.isEmpty())
-            throw new IllegalArgumentException("Invalid URL: Unable to extract file name from URL.");
-        return fileName;
+    private CompletableFuture<Void> download(Source source) {
+        try {
+            source.pdfFile = Files.createTempFile(scratchDir, "source-", ".pdf");
+        } catch (IOException e) {
+            return CompletableFuture.failedFuture(e);
+        }
+        long startNanos = System.nanoTime();
+        CompletableFuture<PdfFetcher.Download> download = source.rangeLoading
+                ? pdfFetcher.openAsync(source.pdfUrl, source.pdfFile, rangeBlockBytes, rangeCachedBlocks)
+                : pdfFetcher.downloadAsync(source.pdfUrl, source.pdfFile, null, null);
+        return download.thenAccept(result -> {
+            source.rangeSource = result.rangeSource();
+            source.openMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos);
+            if (source.rangeSource == null) {
+                try {
+                    source.timings.add(TaskCostEstimator.fetchTiming(source.pdfUrl, Files.size(source.pdfFile),
+                            TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos)));
+                } catch (IOException e) {
+                    System.err.println("Failed to time download of " + source.pdfUrl + ": " + e.getMessage());
+                }
+            }
+            if (source.rangeSource == null && sourceCache != null) {
+                source.cachedFile = sourceCache.put(source.pdfUrl, source.pdfFile, result.eTag(), result.lastModified());
+                if (source.cachedFile != null) {
+                    source.pdfFile = null;
+                }
+            }
+        });
     }
 
-    private ByteArrayOutputStream downloadPdf(String pdfUrl) throws IOException {
-        if (pdfUrl == null || pdfUrl.isEmpty()) {
-            throw new IllegalArgumentException("Invalid URL: URL is null or empty.");
+    /**
+     * Parses the document once and converts it for every operation that the result cache could not serve. Each
+     * output goes straight into an S3 upload stream, which ships it on the upload stage, so the convert thread
+     * moves on to the next document while the artifacts are still being uploaded.
+     */
+    private void convert(Source source) {
+        try {
+            List<Task> pending = new ArrayList<>();
+            String sourceIdentity = sourceIdentity(source);
+            for (Task task : source.tasks.values()) {
+                if (!task.result.isDone() && !copyCachedResult(task, sourceIdentity)) {
+                    pending.add(task);
+                }
+            }
+            if (!pending.isEmpty()) {
+                try (PDDocument document = loadPdf(source)) {
+                    // Text is extracted once per page range, for both text formats
+                    Map<PageRange, String> pageTexts = new HashMap<>();
+                    for (Task task : pending) {
+                        try {
+                            long startNanos = System.nanoTime();
+                            PageRange pages = task.pages == null
+                                    ? PageRange.FIRST_PAGE
+                                    : task.pages.resolve(document.getNumberOfPages());
+                            String pageText = null;
+                            if (isTextOperation(task.operation)) {
+                                pageText = pageTexts.get(pages);
+                                if (pageText == null) {
+                                    pageText = extractText(document, pages);
+                                    pageTexts.put(pages, pageText);
+                                }
+                            }
+                            convert(task, document, pages, pageText, source.timings, startNanos);
+                        } catch (Exception e) {
+                            task.result.complete(errorLine(task, e));
+                        }
+                    }
+                }
+            }
+            closeSource(source);
+        } catch (Exception e) {
+            fail(source, e);
         }
+    }
 
-        URL url = new URL(pdfUrl);
-        HttpURLConnection connection = (HttpURLConnection) url.openConnection();
-        connection.setRequestMethod("GET");
-        connection.setConnectTimeout(10_000);
-        connection.setReadTimeout(15_000);
+    /**
+     * The conversion time is recorded before the stream is closed, since the upload may complete the packet.
+     * Only a conversion that succeeded closes the stream; a failed one aborts the upload, so no partial artifact is
+     * stored, returned or cached.
+     */
+    private void convert(Task task, PDDocument document, PageRange pages, String pageText, List<String> timings,
+                         long startNanos) throws IOException {
+        S3UploadStream outputStream = openS3UploadStream(task.s3UploadPath, uploadStage);
+        // The converters close their writers, which must not finish the upload
+        OutputStream artifact = new FilterOutputStream(outputStream) {
+            @Override
+            public void write(byte[] b, int off, int len) throws IOException {
+                out.write(b, off, len);
+            }
 
-        int responseCode = connection.getResponseCode();
-        if (responseCode != HttpURLConnection.HTTP_OK) {
-            throw new RuntimeException("Failed to download pdf from URL: " + pdfUrl);
+            @Override
+            public void close() throws IOException {
+                flush();
+            }
+        };
+        try {
+            convertPdf(task, document, pages, pageText, artifact);
+            timings.add(TaskCostEstimator.convertTiming(task.operation, pages.size(),
+                    TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos)));
+            outputStream.close();
+        } catch (Exception e) {
+            outputStream.abort();
+            throw e;
         }
+        outputStream.completion().whenComplete((ignored, error) -> {
+            if (error != null) {
+                task.result.complete(errorLine(task, error instanceof CompletionException ? error.getCause() : error));
+                return;
+            }
+            if (task.cacheKey != null) {
+                cacheResult(task);
+            }
+            complete(task);
+        });
+    }
 
-        try (InputStream inputStream = connection.getInputStream();
-             ByteArrayOutputStream outputStream = new ByteArrayOutputStream()) {
+    /**
+     * Identifies the source for the result cache: a range-loaded source by its URL and validator, a downloaded one
+     * by its content. A range-loaded source without a validator cannot be identified.
+     *
+     * @return the identity, or null if the source cannot be cached
+     */
+    private String sourceIdentity(Source source) throws IOException {
+        if (resultCache == null) {
+            return null;
+        }
+        if (source.rangeSource != null) {
+            String validator = source.rangeSource.validator();
+            return validator == null ? null : ResultCache.urlIdentity(source.pdfUrl, validator);
+        }
+        return ResultCache.contentIdentity(source.cachedFile != null ? source.cachedFile : source.pdfFile);
+    }
 
-            byte[] buffer = new byte[4096];
-            int bytesRead;
-            while ((bytesRead = inputStream.read(buffer)) != -1) {
-                outputStream.write(buffer, 0, bytesRead);
+    /**
+     * Looks the task up in the result cache and, on a hit, copies the cached artifact to the task's upload path.
+     * Chunks of a split document are not cached: they only live until the Manager merges them.
+     *
+     * @return true if the task was completed from the cache
+     */
+    private boolean copyCachedResult(Task task, String sourceIdentity) {
+        if (sourceIdentity == null || task.partId != null) {
+            return false;
+        }
+        // Images rendered with different settings and other page ranges are different artifacts
+        String cachedOperation = task.operation +
+                (task.pages != null ? " pages " + task.pages : "") +
+                (task.operation.equalsIgnoreCase("TOIMAGE") ? " " + imageRenderer.settings() : "");
+        task.cacheKey = ResultCache.key(cachedOperation, sourceIdentity);
+        Optional<String> cachedPath = resultCache.lookup(task.cacheKey);
+        if (cachedPath.isEmpty()) {
+            return false;
+        }
+        try {
+            if (!cachedPath.get().equals(task.s3UploadPath)) {
+                copyS3Object(cachedPath.get(), task.s3UploadPath);
             }
-            return outputStream;
+        } catch (RuntimeException e) {
+            System.out.println("Cached result " + cachedPath.get() + " is unusable, converting again: " + e.getMessage());
+            resultCache.invalidate(task.cacheKey);
+            return false;
+        }
+        complete(task);
+        return true;
+    }
 
-        } finally {
-            connection.disconnect();
+    /**
+     * Copies the artifact to a path of its own under the cache, keyed by the cache key, and records that copy. The
+     * task's upload path belongs to the client and may be overwritten by a later submission of the same file name.
+     */
+    private void cacheResult(Task task) {
+        String cachedPath = resultCacheDir + "objects/" + task.cacheKey;
+        try {
+            copyS3Object(task.s3UploadPath, cachedPath);
+        } catch (RuntimeException e) {
+            System.err.println("Failed to cache " + task.s3UploadPath + ": " + e.getMessage());
+            return;
         }
+        resultCache.record(task.cacheKey, cachedPath);
     }
 
-    private String processPdfAndUpload(String operation, ByteArrayOutputStream pdfData, String pdfName, String s3Path) {
-        ByteArrayOutputStream outputStream;
-        String s3UploadPath;
-        switch (operation.toUpperCase()) {
-            case "TOTEXT" -> {
-                outputStream = pdfToTXT(pdfData);
-                s3UploadPath = s3Path + pdfName.replace(".pdf", ".txt");
+    private void complete(Task task) {
+        task.result.complete(describe(task) + " <----> s3Path: " + task.s3UploadPath + "\n'");
+    }
+
+    private void fail(Source source, Throwable e) {
+        if (e instanceof CompletionException && e.getCause() != null) {
+            e = e.getCause();
+        }
+        closeSource(source);
+        for (Task task : source.tasks.values()) {
+            task.result.complete(errorLine(task, e));
+        }
+    }
+
+    private void closeSource(Source source) {
+        try {
+            closeRangeSource(source);
+            if (source.cachedFile != null) {
+                sourceCache.release(source.cachedFile);
+                source.cachedFile = null;
             }
-            case "TOHTML" -> {
-                outputStream = pdfToHTML(pdfData);
-                s3UploadPath = s3Path + pdfName.replace(".pdf", ".html");
+            if (source.pdfFile == null) {
+                return;
             }
-            case "TOIMAGE" -> {
-                outputStream = pdfToPNG(pdfData);
-                s3UploadPath = s3Path + pdfName.replace(".pdf", ".png");
+            try {
+                Files.deleteIfExists(source.pdfFile);
+            } catch (IOException e) {
+                System.err.println("Failed to delete scratch file: " + source.pdfFile);
             }
-            default -> throw new IllegalArgumentException("Unsupported operation: " + operation);
+            source.pdfFile = null;
+        } finally {
+            source.closed.complete(null);
+        }
+    }
+
+    /**
+     * Closes a range-loaded source, reporting the bytes it actually pulled and the time spent on them as its fetch
+     * timing.
+     */
+    private void closeRangeSource(Source source) {
+        HttpRangeSource rangeSource = source.rangeSource;
+        if (rangeSource == null) {
+            return;
         }
+        source.rangeSource = null;
+        rangeSource.close();
+        source.timings.add(TaskCostEstimator.fetchTiming(source.pdfUrl, rangeSource.bytesFetched(),
+                source.openMillis + rangeSource.fetchMillis()));
+    }
 
-        uploadFileToS3(s3UploadPath, outputStream);
-        return s3UploadPath;
+    private String errorLine(Task task, Throwable e) {
+        return describe(task) + " <----> error: " + e.getMessage() + "\n'";
     }
 
-    private ByteArrayOutputStream pdfToTXT(ByteArrayOutputStream pdfData) {
-        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
-        try (PDDocument document = PDDocument.load(pdfData.toByteArray())) {
-            PDFTextStripper textStripper = new PDFTextStripper();
-            textStripper.setStartPage(pageIndex);
-            textStripper.setEndPage(pageIndex);
-            String pdfText = textStripper.getText(document);
+    /**
+     * Result lines of chunks start with "Part: id", which the Manager picks out to merge them.
+     */
+    private String describe(Task task) {
+        return (task.partId != null ? "Part: " + task.partId + " <----> " : "") +
+                "Operation: " + task.operation + " <----> URL: " + task.pdfUrl +
+                (task.pages != null ? " <----> pages: " + task.pages : "");
+    }
+
+    private String extractPdfName(String pdfUrl) {
+        if (pdfUrl == null || pdfUrl.isEmpty())
+            throw new IllegalArgumentException("Invalid URL: URL is null or empty.");
+        String fileName = pdfUrl.substring(pdfUrl.lastIndexOf("/") + 1);
+        if (fileName.isEmpty())
+            throw new IllegalArgumentException("Invalid URL: Unable to extract file name from URL.");
+        return fileName;
+    }
 
-            try (BufferedWriter writer = new BufferedWriter(new OutputStreamWriter(outputStream, StandardCharsets.UTF_8))) {
-                writer.write(pdfText);
+    /**
+     * Opens the source's document, either from the source cache, lazily over HTTP ranges or from its scratch file. PDFBox keeps up to
+     * pdfMainMemoryBytes of parsed streams in memory and spills the rest to scratch files, so heap use follows
+     * page complexity instead of file size.
+     * Range-backed documents are parsed strictly, because lenient parsing validates every xref offset and so
+     * reads the whole file. A document that fails strict parsing is downloaded in full and parsed leniently.
+     */
+    private PDDocument loadPdf(Source source) throws IOException {
+        MemoryUsageSetting memoryUsageSetting = MemoryUsageSetting.setupMixed(pdfMainMemoryBytes)
+                .setTempDir(scratchDir.toFile());
+        if (source.cachedFile != null) {
+            return Loader.loadPDF(SourceCache.open(source.cachedFile), "", null, null, memoryUsageSetting.streamCache);
+        }
+        if (source.rangeSource != null) {
+            try {
+                return new PDFParser(source.rangeSource, "", null, null, memoryUsageSetting.streamCache).parse(false);
             } catch (IOException e) {
-                handleError(e, "Failed to extract text or write TXT file");
+                System.out.println("Range loading failed for " + source.pdfUrl + ", downloading it in full: " + e.getMessage());
+                closeRangeSource(source);
+                long startNanos = System.nanoTime();
+                pdfFetcher.fetch(source.pdfUrl, source.pdfFile);
+                source.timings.add(TaskCostEstimator.fetchTiming(source.pdfUrl, Files.size(source.pdfFile),
+                        TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos)));
             }
-        } catch (IOException e) {
-            handleError(e, "Unable to open the PDF file");
         }
-        return outputStream;
+        return Loader.loadPDF(source.pdfFile.toFile(), memoryUsageSetting.streamCache);
     }
 
-    private ByteArrayOutputStream pdfToHTML(ByteArrayOutputStream pdfData) {
-        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
-        try (PDDocument document = PDDocument.load(pdfData.toByteArray())) {
-            PDFTextStripper textStripper = new PDFTextStripper();
-            textStripper.setStartPage(pageIndex);
-            textStripper.setEndPage(pageIndex);
-            String pdfText = textStripper.getText(document);
+    /**
+     * Extracts the text of a range of pages. The stripper runs over a view holding only those pages, because
+     * walking the full page tree would resolve every page of a range-loaded document. The view holds copies of the
+     * page dictionaries with their inherited attributes filled in: adding the original pages would re-parent them
+     * and cut them off from resources inherited from the document's page tree.
+     */
+    private String extractText(PDDocument document, PageRange pages) throws IOException {
+        try (PDDocument pagesView = new PDDocument()) {
+            for (int page = pages.start(); page <= pages.end(); page++) {
+                PDPage original = document.getPage(page - 1);
+                PDPage copy = new PDPage(new COSDictionary(original.getCOSObject()));
+                copy.setResources(original.getResources());
+                copy.setMediaBox(original.getMediaBox());
+                copy.setCropBox(original.getCropBox());
+                copy.setRotation(original.getRotation());
+                pagesView.addPage(copy);
+            }
+            return new PDFTextStripper().getText(pagesView);
+        }
+    }
 
-            try (BufferedWriter writer = new BufferedWriter(new OutputStreamWriter(outputStream, StandardCharsets.UTF_8))) {
-                writer.write("<html><head><style>pre { white-space: pre-wrap; word-wrap: break-word; }</style></head><body><pre>");
-                writer.write(pdfText);
-                writer.write("</pre></body></html>");
+    private boolean isTextOperation(String operation) {
+        return operation.equalsIgnoreCase("TOTEXT") || operation.equalsIgnoreCase("TOHTML");
+    }
+
+    /**
+     * Writes the task's artifact. A single page keeps the original formats. A range becomes one text or HTML
+     * document, or a zip of page images. A chunk of a split range is written raw (text, or a zip of page images)
+     * for the Manager to merge.
+     */
+    private void convertPdf(Task task, PDDocument document, PageRange pages, String pageText, OutputStream outputStream)
+            throws IOException {
+        switch (task.operation.toUpperCase()) {
+            case "TOTEXT" -> pdfToTXT(pageText, outputStream);
+            case "TOHTML" -> {
+                if (task.partId != null) {
+                    pdfToTXT(pageText, outputStream);
+                } else {
+                    pdfToHTML(pageText, outputStream);
+                }
             }
-        } catch (IOException e) {
-            handleError(e, "Failed to extract text or write HTML file");
+            case "TOIMAGE" -> {
+                if (pages.size() == 1 && task.partId == null) {
+                    pdfToImage(document, pages.start(), outputStream);
+                } else {
+                    pdfToImageZip(document, pages, outputStream);
+                }
+            }
+            default -> throw new IllegalArgumentException("Unsupported operation: " + task.operation);
         }
-        return outputStream;
     }
 
-    private ByteArrayOutputStream pdfToPNG(ByteArrayOutputStream pdfData) {
-        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
-        try (PDDocument document = PDDocument.load(pdfData.toByteArray())) {
-            PDFRenderer renderer = new PDFRenderer(document);
-            BufferedImage image = renderer.renderImageWithDPI(pageIndex - 1, 300, ImageType.RGB);
+    /**
+     * Chunks go under a prefix of their own message, so a backup copy of the packet never overwrites the chunk the
+     * Manager merges, and the copy whose result is discarded can be deleted.
+     */
+    private String outputFileName(Task task, String pdfName) {
+        if (task.pages == null) {
+            return switch (task.operation.toUpperCase()) {
+                case "TOTEXT" -> pdfName.replace(".pdf", ".txt");
+                case "TOHTML" -> pdfName.replace(".pdf", ".html");
+                case "TOIMAGE" -> pdfName.replace(".pdf", imageRenderer.fileExtension());
+                default -> throw new IllegalArgumentException("Unsupported operation: " + task.operation);
+            };
+        }
+        boolean singlePage = task.pages.start() == task.pages.end();
+        String extension = switch (task.operation.toUpperCase()) {
+            case "TOTEXT" -> ".txt";
+            case "TOHTML" -> task.partId != null ? ".txt" : ".html";
+            case "TOIMAGE" -> singlePage && task.partId == null ? imageRenderer.fileExtension() : ".zip";
+            default -> throw new IllegalArgumentException("Unsupported operation: " + task.operation);
+        };
+        String fileName = pdfName.replace(".pdf", task.pages.fileSuffix() + extension);
+        return task.partId != null ? "parts/" + task.partId + "/" + task.messageId + "/" + fileName : fileName;
+    }
 
-            ImageIO.write(image, "PNG", outputStream);
-        } catch (IOException e) {
-            handleError(e, "Failed to render or save PNG file");
+    private void pdfToTXT(String pdfText, OutputStream outputStream) throws IOException {
+        try (BufferedWriter writer = new BufferedWriter(new OutputStreamWriter(outputStream, StandardCharsets.UTF_8))) {
+            writer.write(pdfText);
+        }
+    }
+
+    private void pdfToHTML(String pdfText, OutputStream outputStream) throws IOException {
+        try (BufferedWriter writer = new BufferedWriter(new OutputStreamWriter(outputStream, StandardCharsets.UTF_8))) {
+            writer.write("<html><head><style>pre { white-space: pre-wrap; word-wrap: break-word; }</style></head><body><pre>");
+            writer.write(pdfText);
+            writer.write("</pre></body></html>");
+        }
+    }
+
+    private void pdfToImage(PDDocument document, int page, OutputStream outputStream) throws IOException {
+        imageRenderer.render(document, page - 1, outputStream);
+    }
+
+    /**
+     * Writes one image per page into a zip, entries named page-0001.png and so on after their page number.
+     * Images are already compressed, so entries are stored without deflating them again.
+     */
+    private void pdfToImageZip(PDDocument document, PageRange pages, OutputStream outputStream) throws IOException {
+        try (ZipOutputStream zip = new ZipOutputStream(outputStream)) {
+            zip.setLevel(Deflater.NO_COMPRESSION);
+            for (int page = pages.start(); page <= pages.end(); page++) {
+                zip.putNextEntry(new ZipEntry(String.format("page-%04d%s", page, imageRenderer.fileExtension())));
+                imageRenderer.render(document, page - 1, zip);
+                zip.closeEntry();
+            }
         }
-        return outputStream;
     }
 
 
@@ -0,0 +1,115 @@
+package org.CloudPDF;
+
+import java.util.*;
+
+/**
+ * The Manager's view of its workers, built from the status reports they send to the workers-status queue as
+ * "instanceId state packetsInFlight". Scale-in drains the cheapest workers first: those that have not reported yet
+ * (still booting) or are idle, then the busy ones with the fewest packets in flight.
+ * A draining worker stops receiving packets, finishes and acknowledges the ones it holds, and reports DRAINED; only
+ * then is its instance terminated.
+ */
+public class WorkerRegistry {
+
+    public enum State {IDLE, BUSY, DRAINED}
+
+    private record Status(State state, int packetsInFlight) {
+    }
+
+    private final Map<String, Status> statuses = new HashMap<>();
+    private final Map<String, Long> drainingSince = new HashMap<>();
+
+    public static String controlQueueName(String instanceId) {
+        return "manager2worker_" + instanceId;
+    }
+
+    public static String statusLine(String instanceId, State state, int packetsInFlight) {
+        return instanceId + " " + state + " " + packetsInFlight;
+    }
+
+    /**
+     * Records a status report. DRAINED is final: the queue does not keep reports in order, and a worker that
+     * drained never takes packets again, so an earlier report delivered late does not replace it.
+     *
+     * @return the reporting instance, or null if the report is malformed
+     */
+    public synchronized String record(String statusLine) {
+        String[] fields = statusLine.trim().split(" ");
+        if (fields.length != 3) {
+            return null;
+        }
+        try {
+            Status status = new Status(State.valueOf(fields[1]), Integer.parseInt(fields[2]));
+            if (!isDrained(fields[0])) {
+                statuses.put(fields[0], status);
+            }
+            return fields[0];
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+    }
+
+    /**
+     * @return how many of the workers have reported, and so have finished booting
+     */
+    public synchronized int reportedCount(List<String> instanceIds) {
+        return (int) instanceIds.stream().filter(statuses::containsKey).count();
+    }
+
+    public synchronized boolean isDrained(String instanceId) {
+        Status status = statuses.get(instanceId);
+        return status != null && status.state() == State.DRAINED;
+    }
+
+    /**
+     * Picks up to count of the running workers to drain, cheapest first.
+     */
+    public synchronized List<String> pickForRemoval(List<String> running, int count) {
+        List<String> candidates = new ArrayList<>(running);
+        candidates.removeAll(drainingSince.keySet());
+        candidates.sort(Comparator.comparingInt(instanceId -> {
+            Status status = statuses.get(instanceId);
+            return status == null ? 0 : status.packetsInFlight() + (status.state() == State.BUSY ? 1 : 0);
+        }));
+        return candidates.subList(0, Math.min(count, candidates.size()));
+    }
+
+    public synchronized void startDrain(String instanceId) {
+        drainingSince.put(instanceId, System.currentTimeMillis());
+    }
+
+    public synchronized void cancelDrain(String instanceId) {
+        drainingSince.remove(instanceId);
+    }
+
+    public synchronized int drainingCount() {
+        return drainingSince.size();
+    }
+
+    /**
+     * @return the draining workers that have not reported DRAINED within timeoutMillis
+     */
+    public synchronized List<String> overdue(long timeoutMillis) {
+        long now = System.currentTimeMillis();
+        return drainingSince.entrySet().stream()
+                .filter(draining -> now - draining.getValue() > timeoutMillis)
+                .map(Map.Entry::getKey)
+                .toList();
+    }
+
+    public synchronized boolean isDraining(String instanceId) {
+        return drainingSince.containsKey(instanceId);
+    }
+
+    /**
+     * @return the draining workers that have reported DRAINED
+     */
+    public synchronized List<String> drained() {
+        return drainingSince.keySet().stream().filter(this::isDrained).toList();
+    }
+
+    public synchronized void forget(String instanceId) {
+        statuses.remove(instanceId);
+        drainingSince.remove(instanceId);
+    }
+}
@@ -0,0 +1,74 @@
+package org.CloudPDF;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class BacklogScalingPolicyTest {
+    private static final long MINUTE = 60_000;
+
+    // 5 minutes of work per worker at 2 packets a minute: 10 packets per worker
+    private final BacklogScalingPolicy policy = new BacklogScalingPolicy(5, MINUTE, 2, 2, MINUTE, 5 * MINUTE);
+
+    private static ScalingPolicy.Inputs tick(long nowMillis, int workers, int readyWorkers, long outstanding,
+                                             long completed) {
+        return new ScalingPolicy.Inputs(nowMillis, workers, readyWorkers, outstanding, 0, 0, completed);
+    }
+
+    @Test
+    void scalesOutToTheTargetWorkPerWorker() {
+        assertEquals(10, policy.desiredWorkers(tick(0, 1, 1, 100, 0)));
+    }
+
+    @Test
+    void waitsForTheScaleOutCooldown() {
+        assertEquals(10, policy.desiredWorkers(tick(0, 1, 0, 100, 0)));
+        assertEquals(10, policy.desiredWorkers(tick(MINUTE / 2, 10, 0, 300, 0)));
+        assertEquals(30, policy.desiredWorkers(tick(MINUTE, 10, 0, 300, 0)));
+    }
+
+    @Test
+    void skipsScaleOutForWorkThatDrainsWithinABoot() {
+        BacklogScalingPolicy slowBoot = new BacklogScalingPolicy(5, 10 * MINUTE, 2, 2, MINUTE, 5 * MINUTE);
+
+        assertEquals(5, slowBoot.desiredWorkers(tick(0, 5, 5, 60, 0)));
+    }
+
+    @Test
+    void scalesInToTheRelaxedTargetAfterTheCooldown() {
+        assertEquals(10, policy.desiredWorkers(tick(0, 1, 0, 100, 0)));
+        assertEquals(10, policy.desiredWorkers(tick(MINUTE, 10, 0, 30, 0)));
+        assertEquals(2, policy.desiredWorkers(tick(5 * MINUTE, 10, 0, 30, 0)));
+    }
+
+    @Test
+    void learnsThroughputFromCompletedPackets() {
+        policy.desiredWorkers(tick(0, 2, 2, 100, 0));
+        policy.desiredWorkers(tick(MINUTE, 2, 2, 80, 20));
+
+        assertEquals(0.7 * 2 + 0.3 * 10, policy.packetsPerWorkerMinute(), 1e-9);
+    }
+
+    @Test
+    void doesNotSampleIdleTicks() {
+        policy.desiredWorkers(tick(0, 2, 2, 0, 0));
+        policy.desiredWorkers(tick(MINUTE, 2, 2, 0, 0));
+
+        assertEquals(2, policy.packetsPerWorkerMinute(), 1e-9);
+    }
+
+    @Test
+    void doesNotSampleTicksWithLessWorkThanWorkers() {
+        policy.desiredWorkers(tick(0, 4, 4, 3, 0));
+        policy.desiredWorkers(tick(MINUTE, 4, 4, 0, 3));
+
+        assertEquals(2, policy.packetsPerWorkerMinute(), 1e-9);
+    }
+
+    @Test
+    void rejectsUnknownPolicyNames() {
+        assertInstanceOf(BacklogScalingPolicy.class, ScalingPolicy.named("backlog"));
+        assertEquals(7, ScalingPolicy.named("packets").desiredWorkers(tick(0, 1, 1, 7, 0)));
+        assertThrows(IllegalArgumentException.class, () -> ScalingPolicy.named("bakclog"));
+    }
+}
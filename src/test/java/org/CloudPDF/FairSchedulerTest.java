@@ -0,0 +1,94 @@
+package org.CloudPDF;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class FairSchedulerTest {
+    private final List<String> sent = new ArrayList<>();
+
+    private int send(String clientId, TaskLane lane, List<String> packets) {
+        packets.forEach(packet -> sent.add(clientId + ":" + packet));
+        return packets.size();
+    }
+
+    private static Map<TaskLane, List<String>> light(String... packets) {
+        Map<TaskLane, List<String>> lanePackets = new EnumMap<>(TaskLane.class);
+        lanePackets.put(TaskLane.LIGHT, List.of(packets));
+        return lanePackets;
+    }
+
+    @Test
+    void takesTurnsBetweenClients() {
+        FairScheduler scheduler = new FairScheduler(1, 1, this::send);
+
+        scheduler.submit("big", light("b1", "b2", "b3"));
+        scheduler.submit("small", light("s1"));
+        scheduler.complete(List.of("big"));
+        scheduler.complete(List.of("big"));
+        scheduler.complete(List.of("small"));
+
+        assertEquals(List.of("big:b1", "big:b2", "small:s1", "big:b3"), sent);
+    }
+
+    @Test
+    void capsThePacketsInFlightPerClient() {
+        FairScheduler scheduler = new FairScheduler(4, 2, this::send);
+
+        scheduler.submit("big", light("b1", "b2", "b3", "b4", "b5"));
+        scheduler.submit("small", light("s1"));
+
+        assertEquals(List.of("big:b1", "big:b2", "small:s1"), sent);
+        assertEquals(3, scheduler.getInFlight());
+        assertEquals(3, scheduler.getBacklog());
+        assertEquals(1, scheduler.getActiveClients());
+    }
+
+    @Test
+    void interleavesLanesWithinAClient() {
+        FairScheduler scheduler = new FairScheduler(2, 2, this::send);
+        Map<TaskLane, List<String>> lanePackets = new EnumMap<>(TaskLane.class);
+        lanePackets.put(TaskLane.LIGHT, List.of("l1", "l2", "l3"));
+        lanePackets.put(TaskLane.HEAVY, List.of("h1"));
+
+        scheduler.submit("client", lanePackets);
+
+        assertEquals(List.of("client:l1", "client:h1"), sent);
+    }
+
+    @Test
+    void freesTheSlotsOfPacketsThatWereNotSent() {
+        AtomicBoolean failing = new AtomicBoolean(true);
+        FairScheduler scheduler = new FairScheduler(1, 1, (clientId, lane, packets) -> {
+            if (failing.getAndSet(false)) {
+                throw new IllegalStateException("queue unavailable");
+            }
+            return send(clientId, lane, packets);
+        });
+
+        scheduler.submit("first", light("f1"));
+        assertEquals(0, scheduler.getInFlight());
+
+        scheduler.submit("second", light("s1"));
+        assertEquals(List.of("second:s1"), sent);
+        assertEquals(1, scheduler.getInFlight());
+    }
+
+    @Test
+    void ignoresResultsOfClientsWithNothingInFlight() {
+        FairScheduler scheduler = new FairScheduler(2, 1, this::send);
+        scheduler.submit("a", light("a1"));
+        scheduler.submit("b", light("b1"));
+
+        scheduler.complete(List.of("a"));
+        scheduler.complete(List.of("a"));
+
+        assertEquals(1, scheduler.getInFlight());
+    }
+}
@@ -0,0 +1,86 @@
+package org.CloudPDF;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class PacketPackerTest {
+
+    private static PacketPacker packer(PacketPacker.Mode mode, int tasksPerPacket) {
+        return new PacketPacker(mode, tasksPerPacket, TaskCostEstimatorTest.estimator(Map.of()));
+    }
+
+    private static String lines(String... tasks) {
+        return String.join("\n", tasks);
+    }
+
+    @Test
+    void keepsFileOrderInFileMode() {
+        List<String> packets = packer(PacketPacker.Mode.FILE, 2).pack(lines(
+                "ToText http://a/1.pdf", "ToText http://b/2.pdf", "ToHTML http://a/1.pdf"));
+
+        assertEquals(List.of("ToText http://a/1.pdf\nToText http://b/2.pdf\n", "ToHTML http://a/1.pdf\n"), packets);
+    }
+
+    @Test
+    void groupsOperationsOnOneDocumentInUrlMode() {
+        List<String> packets = packer(PacketPacker.Mode.URL, 2).pack(lines(
+                "ToText http://a/1.pdf", "ToText http://b/2.pdf", "ToHTML http://a/1.pdf"));
+
+        assertEquals(List.of("ToText http://a/1.pdf\nToHTML http://a/1.pdf\n", "ToText http://b/2.pdf\n"), packets);
+    }
+
+    @Test
+    void groupsDocumentsOfOneHostInHostMode() {
+        List<String> packets = packer(PacketPacker.Mode.HOST, 2).pack(lines(
+                "ToText http://a/1.pdf", "ToText http://b/2.pdf", "ToText http://A/3.pdf"));
+
+        assertEquals(List.of("ToText http://a/1.pdf\nToText http://A/3.pdf\n", "ToText http://b/2.pdf\n"), packets);
+    }
+
+    @Test
+    void givesEveryChunkAPacketOfItsOwn() {
+        List<String> packets = packer(PacketPacker.Mode.URL, 10).pack(lines(
+                "ToText http://a/1.pdf 1-10 part:x", "ToText http://a/1.pdf 11-20 part:x", "ToText http://a/1.pdf"));
+
+        assertEquals(List.of("ToText http://a/1.pdf 1-10 part:x\n", "ToText http://a/1.pdf 11-20 part:x\n",
+                "ToText http://a/1.pdf\n"), packets);
+    }
+
+    @Test
+    void balancesPacketsByEstimatedCost() {
+        List<String> packets = packer(PacketPacker.Mode.COST, 3).pack(lines(
+                "ToImage http://a/x.pdf", "ToText http://a/1.pdf", "ToText http://a/2.pdf", "ToText http://a/3.pdf",
+                "ToText http://a/4.pdf"));
+
+        assertEquals(List.of("ToImage http://a/x.pdf\nToText http://a/4.pdf\n",
+                "ToText http://a/1.pdf\nToText http://a/2.pdf\nToText http://a/3.pdf\n"), packets);
+    }
+
+    @Test
+    void capsCostPacketsAtTasksPerPacket() {
+        List<String> packets = packer(PacketPacker.Mode.COST, 2).pack(lines(
+                "ToImage http://a/1.pdf 1", "ToImage http://a/1.pdf 2", "ToImage http://a/1.pdf 3",
+                "ToText http://a/2.pdf"));
+
+        assertEquals(2, packets.size());
+        for (String packet : packets) {
+            assertFalse(packet.isEmpty());
+            assertTrue(packet.split("\n").length <= 2, packet);
+        }
+        assertEquals(4, packets.stream().mapToInt(packet -> packet.split("\n").length).sum());
+    }
+
+    @Test
+    void leavesNoEmptyCostPackets() {
+        List<String> packets = packer(PacketPacker.Mode.COST, 2).pack(lines(
+                "ToImage http://a/1.pdf 1", "ToImage http://a/1.pdf 2", "ToImage http://a/1.pdf 3",
+                "bad line", "ToText http://a/2.pdf 1-4 part:y"));
+
+        assertTrue(packets.stream().noneMatch(String::isEmpty), packets.toString());
+        assertEquals(5, packets.stream().mapToInt(packet -> packet.split("\n").length).sum());
+    }
+}
@@ -0,0 +1,63 @@
+package org.CloudPDF;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class PacketTrackerTest {
+    private final PacketTracker tracker = new PacketTracker(0.5, 3, 1000);
+
+    private PacketTracker.Packet send(String clientId, long ageMillis) {
+        PacketTracker.Packet packet = new PacketTracker.Packet(tracker.newId(clientId), clientId, TaskLane.LIGHT,
+                "ToText http://a/1.pdf\n", System.currentTimeMillis() - ageMillis);
+        tracker.sent(packet);
+        return packet;
+    }
+
+    @Test
+    void acceptsTheFirstResultOfAPacketOnly() {
+        PacketTracker.Packet packet = send("c1", 0);
+
+        assertTrue(tracker.finish(packet.id()));
+        assertFalse(tracker.finish(packet.id()));
+        assertFalse(tracker.finish("c1-unknown"));
+    }
+
+    @Test
+    void reissuesSlowPacketsNearTheEndOfAClientOnce() {
+        tracker.finish(send("c1", 100).id());
+        PacketTracker.Packet slow = send("c1", 10_000);
+        send("c1", 10);
+
+        assertEquals(List.of(slow), tracker.stragglers(clientId -> 1));
+        assertEquals(List.of(), tracker.stragglers(clientId -> 1));
+    }
+
+    @Test
+    void waitsWhileMuchOfTheClientIsOutstanding() {
+        tracker.finish(send("c1", 100).id());
+        send("c1", 10_000);
+
+        assertEquals(List.of(), tracker.stragglers(clientId -> 2));
+    }
+
+    @Test
+    void needsADurationToCompareWith() {
+        send("c1", 10_000);
+
+        assertEquals(List.of(), tracker.stragglers(clientId -> 1));
+    }
+
+    @Test
+    void forgetsTheOutstandingPacketsOfAClient() {
+        tracker.finish(send("c1", 100).id());
+        PacketTracker.Packet forgotten = send("c1", 10_000);
+        PacketTracker.Packet other = send("c2", 10_000);
+        tracker.forgetClient("c1");
+
+        assertEquals(List.of(other), tracker.stragglers(clientId -> 1));
+        assertFalse(tracker.finish(forgotten.id()));
+    }
+}
@@ -0,0 +1,49 @@
+package org.CloudPDF;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class PageRangeTest {
+
+    @Test
+    void parsesEveryForm() {
+        assertEquals(new PageRange(3, 3), PageRange.parse("3"));
+        assertEquals(new PageRange(2, 7), PageRange.parse("2-7"));
+        assertEquals(new PageRange(5, 0), PageRange.parse("5-"));
+        assertEquals(new PageRange(1, 0), PageRange.parse("ALL"));
+    }
+
+    @Test
+    void rejectsInvalidRanges() {
+        assertThrows(IllegalArgumentException.class, () -> PageRange.parse("0"));
+        assertThrows(IllegalArgumentException.class, () -> PageRange.parse("7-2"));
+        assertThrows(IllegalArgumentException.class, () -> PageRange.parse("a-b"));
+        assertThrows(IllegalArgumentException.class, () -> PageRange.parse("-4"));
+    }
+
+    @Test
+    void resolvesOpenEndedRangesAgainstThePageCount() {
+        assertEquals(new PageRange(5, 12), PageRange.parse("5-").resolve(12));
+        assertEquals(new PageRange(2, 7), PageRange.parse("2-7").resolve(12));
+        assertThrows(IllegalArgumentException.class, () -> PageRange.parse("13-").resolve(12));
+        assertThrows(IllegalArgumentException.class, () -> PageRange.parse("2-13").resolve(12));
+    }
+
+    @Test
+    void onlyClosedRangesHaveASize() {
+        assertEquals(6, PageRange.parse("2-7").size());
+        assertEquals(1, PageRange.FIRST_PAGE.size());
+        assertThrows(IllegalStateException.class, () -> PageRange.parse("all").size());
+    }
+
+    @Test
+    void formatsAsItParses() {
+        for (String text : new String[]{"3", "2-7", "5-"}) {
+            assertEquals(text, PageRange.parse(text).toString());
+        }
+        assertEquals(".p3", PageRange.parse("3").fileSuffix());
+        assertEquals(".p2-7", PageRange.parse("2-7").fileSuffix());
+        assertEquals(".p5-end", PageRange.parse("5-").fileSuffix());
+    }
+}
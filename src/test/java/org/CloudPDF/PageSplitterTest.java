@@ -0,0 +1,85 @@
+package org.CloudPDF;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class PageSplitterTest {
+    // Only open-ended ranges need the fetcher, to count pages
+    private final PageSplitter pageSplitter = new PageSplitter(null, 10);
+
+    private static String partId(String line) {
+        return TaskLine.parse(line).partId();
+    }
+
+    private static String partResult(String line, String outcome) {
+        TaskLine task = TaskLine.parse(line);
+        return "Part: " + task.partId() + " <----> Operation: " + task.operation() + " <----> URL: " + task.pdfUrl()
+                + " <----> pages: " + task.pages() + " <----> " + outcome;
+    }
+
+    @Test
+    void splitsLongRangesIntoChunks() {
+        List<String> lines = pageSplitter.expand("c1", "ToText http://a/1.pdf 1-25\nToHTML http://a/2.pdf 3-5\nbad");
+
+        assertEquals(5, lines.size());
+        String id = partId(lines.get(0));
+        assertNotNull(id);
+        assertEquals(List.of("ToText http://a/1.pdf 1-10 part:" + id, "ToText http://a/1.pdf 11-20 part:" + id,
+                "ToText http://a/1.pdf 21-25 part:" + id, "ToHTML http://a/2.pdf 3-5", "bad"), lines);
+    }
+
+    @Test
+    void mergesOnceEveryChunkReported() {
+        List<String> lines = pageSplitter.expand("c1", "ToText http://a/1.pdf 1-25");
+
+        assertNull(pageSplitter.recordPart(partResult(lines.get(2), "s3Path: p3")));
+        assertNull(pageSplitter.recordPart(partResult(lines.get(0), "s3Path: p1")));
+        PageSplitter.Split split = pageSplitter.recordPart(partResult(lines.get(1), "s3Path: p2"));
+
+        assertNotNull(split);
+        assertEquals(List.of("p1", "p2", "p3"), split.partPaths());
+        assertNull(split.error);
+        assertEquals(new PageRange(1, 25), split.pages);
+    }
+
+    @Test
+    void keepsTheFirstChunkError() {
+        List<String> lines = pageSplitter.expand("c1", "ToText http://a/1.pdf 1-15");
+
+        assertNull(pageSplitter.recordPart(partResult(lines.get(1), "error: broken page")));
+        PageSplitter.Split split = pageSplitter.recordPart(partResult(lines.get(0), "s3Path: p1"));
+
+        assertEquals("pages 11-15: broken page", split.error);
+        assertEquals(List.of("p1"), split.partPaths());
+    }
+
+    @Test
+    void tellsChunksAwaitingTheMergeApart() {
+        List<String> lines = pageSplitter.expand("c1", "ToText http://a/1.pdf 1-15");
+
+        pageSplitter.recordPart(partResult(lines.get(0), "s3Path: p1"));
+        assertTrue(pageSplitter.isPendingPart("p1"));
+        assertFalse(pageSplitter.isPendingPart("p1-backup"));
+
+        pageSplitter.recordPart(partResult(lines.get(1), "s3Path: p2"));
+        assertFalse(pageSplitter.isPendingPart("p1"));
+    }
+
+    @Test
+    void forgetsTheSplitsOfACompletedClient() {
+        List<String> lines = pageSplitter.expand("c1", "ToText http://a/1.pdf 1-15");
+        pageSplitter.forgetClient("c1");
+
+        assertNull(pageSplitter.recordPart(partResult(lines.get(0), "s3Path: p1")));
+        assertNull(pageSplitter.recordPart(partResult(lines.get(1), "s3Path: p2")));
+    }
+
+    @Test
+    void recognizesChunkResults() {
+        assertTrue(PageSplitter.isPartResult("Part: x <----> Operation: ToText"));
+        assertFalse(PageSplitter.isPartResult("Operation: ToText <----> URL: u"));
+    }
+}
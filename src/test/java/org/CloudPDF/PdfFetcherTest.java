@@ -0,0 +1,227 @@
+package org.CloudPDF;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.net.http.HttpTimeoutException;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.GZIPOutputStream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class PdfFetcherTest {
+    private static final byte[] DOCUMENT = "%PDF-1.4 not really a document, but enough bytes to move around"
+            .getBytes(StandardCharsets.US_ASCII);
+
+    @TempDir
+    Path tempDir;
+
+    private HttpServer server;
+    private ExecutorService executor;
+    private String baseUrl;
+
+    @BeforeEach
+    void startServer() throws IOException {
+        server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        executor = Executors.newCachedThreadPool();
+        server.setExecutor(executor);
+        server.start();
+        baseUrl = "http://localhost:" + server.getAddress().getPort();
+    }
+
+    @AfterEach
+    void stopServer() {
+        server.stop(0);
+        executor.shutdownNow();
+    }
+
+    private PdfFetcher fetcher(int maxRequestsPerHost) {
+        return new PdfFetcher(Duration.ofSeconds(5), Duration.ofSeconds(5), Duration.ofSeconds(5), maxRequestsPerHost,
+                executor);
+    }
+
+    /**
+     * Serves DOCUMENT, answering Range requests with 206 and the given total ("*" for unknown), or ignoring them
+     * with a full 200 when total is null.
+     */
+    private void serveDocument(String path, String total) {
+        server.createContext(path, exchange -> {
+            String range = exchange.getRequestHeaders().getFirst("Range");
+            if (range == null || total == null) {
+                respond(exchange, 200, DOCUMENT);
+                return;
+            }
+            String[] bounds = range.substring("bytes=".length()).split("-");
+            int start = Integer.parseInt(bounds[0]);
+            int end = Math.min(Integer.parseInt(bounds[1]), DOCUMENT.length - 1);
+            exchange.getResponseHeaders().add("Content-Range", "bytes " + start + "-" + end + "/" + total);
+            respond(exchange, 206, Arrays.copyOfRange(DOCUMENT, start, end + 1));
+        });
+    }
+
+    private static void respond(HttpExchange exchange, int status, byte[] body) throws IOException {
+        exchange.sendResponseHeaders(status, body.length == 0 ? -1 : body.length);
+        exchange.getResponseBody().write(body);
+        exchange.close();
+    }
+
+    @Test
+    void limitsConcurrentRequestsPerHost() throws Exception {
+        AtomicInteger running = new AtomicInteger();
+        AtomicInteger maxRunning = new AtomicInteger();
+        CountDownLatch release = new CountDownLatch(1);
+        server.createContext("/slow.pdf", exchange -> {
+            maxRunning.accumulateAndGet(running.incrementAndGet(), Math::max);
+            try {
+                release.await(5, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            running.decrementAndGet();
+            respond(exchange, 200, DOCUMENT);
+        });
+
+        PdfFetcher pdfFetcher = fetcher(2);
+        List<CompletableFuture<Path>> downloads = new ArrayList<>();
+        for (int i = 0; i < 6; i++) {
+            downloads.add(pdfFetcher.fetchAsync(baseUrl + "/slow.pdf", tempDir.resolve(i + ".pdf")));
+        }
+        Thread.sleep(300);
+        assertEquals(2, running.get());
+        release.countDown();
+
+        for (CompletableFuture<Path> download : downloads) {
+            assertArrayEquals(DOCUMENT, Files.readAllBytes(download.get(5, TimeUnit.SECONDS)));
+        }
+        assertEquals(2, maxRunning.get());
+    }
+
+    @Test
+    void decodesGzipBodies() throws Exception {
+        ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+        try (GZIPOutputStream gzip = new GZIPOutputStream(compressed)) {
+            gzip.write(DOCUMENT);
+        }
+        server.createContext("/zipped.pdf", exchange -> {
+            exchange.getResponseHeaders().add("Content-Encoding", "gzip");
+            respond(exchange, 200, compressed.toByteArray());
+        });
+
+        Path file = fetcher(4).fetch(baseUrl + "/zipped.pdf", tempDir.resolve("zipped.pdf"));
+
+        assertArrayEquals(DOCUMENT, Files.readAllBytes(file));
+    }
+
+    @Test
+    void failsOnNon200Responses() {
+        server.createContext("/missing.pdf", exchange -> respond(exchange, 404, new byte[0]));
+
+        RuntimeException error = assertThrows(RuntimeException.class,
+                () -> fetcher(4).fetch(baseUrl + "/missing.pdf", tempDir.resolve("missing.pdf")));
+
+        assertTrue(error.getMessage().contains("/missing.pdf"));
+    }
+
+    @Test
+    void opensLargeDocumentsForRangeReads() throws Exception {
+        serveDocument("/ranged.pdf", String.valueOf(DOCUMENT.length));
+
+        PdfFetcher.Download download = fetcher(4).openAsync(baseUrl + "/ranged.pdf", tempDir.resolve("ranged.pdf"), 16, 2)
+                .get(5, TimeUnit.SECONDS);
+
+        assertNull(download.file());
+        HttpRangeSource rangeSource = download.rangeSource();
+        byte[] content = new byte[(int) rangeSource.length()];
+        assertEquals(content.length, rangeSource.read(content));
+        assertArrayEquals(DOCUMENT, content);
+    }
+
+    @Test
+    void writesDocumentsThatFitTheFirstBlock() throws Exception {
+        serveDocument("/small.pdf", String.valueOf(DOCUMENT.length));
+
+        PdfFetcher.Download download = fetcher(4).openAsync(baseUrl + "/small.pdf", tempDir.resolve("small.pdf"),
+                DOCUMENT.length * 2, 2).get(5, TimeUnit.SECONDS);
+
+        assertNull(download.rangeSource());
+        assertArrayEquals(DOCUMENT, Files.readAllBytes(download.file()));
+    }
+
+    @Test
+    void writesFullAnswersWhenRangesAreIgnored() throws Exception {
+        serveDocument("/full.pdf", null);
+
+        PdfFetcher.Download download = fetcher(4).openAsync(baseUrl + "/full.pdf", tempDir.resolve("full.pdf"), 16, 2)
+                .get(5, TimeUnit.SECONDS);
+
+        assertNull(download.rangeSource());
+        assertArrayEquals(DOCUMENT, Files.readAllBytes(download.file()));
+    }
+
+    @Test
+    void downloadsInFullWhenTheTotalLengthIsUnknown() throws Exception {
+        serveDocument("/unknown.pdf", "*");
+
+        PdfFetcher.Download download = fetcher(1).openAsync(baseUrl + "/unknown.pdf", tempDir.resolve("unknown.pdf"), 16, 2)
+                .get(5, TimeUnit.SECONDS);
+
+        assertNull(download.rangeSource());
+        assertArrayEquals(DOCUMENT, Files.readAllBytes(download.file()));
+    }
+
+    @Test
+    void rejectsFullAnswersToRangeRequests() {
+        serveDocument("/full.pdf", null);
+
+        IOException error = assertThrows(IOException.class,
+                () -> fetcher(4).fetchRange(baseUrl + "/full.pdf", 16, 31, null));
+
+        assertTrue(error.getMessage().contains("status 200"));
+    }
+
+    @Test
+    void timesOutStalledBodiesAndFreesTheHostSlot() throws Exception {
+        CountDownLatch stop = new CountDownLatch(1);
+        server.createContext("/stalled.pdf", exchange -> {
+            exchange.sendResponseHeaders(200, DOCUMENT.length);
+            exchange.getResponseBody().write(DOCUMENT, 0, 8);
+            exchange.getResponseBody().flush();
+            try {
+                stop.await(10, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            exchange.close();
+        });
+        serveDocument("/full.pdf", null);
+        PdfFetcher pdfFetcher = new PdfFetcher(Duration.ofSeconds(5), Duration.ofSeconds(5), Duration.ofMillis(500), 1,
+                executor);
+
+        try {
+            CompletableFuture<PdfFetcher.Download> stalled = pdfFetcher.openAsync(baseUrl + "/stalled.pdf",
+                    tempDir.resolve("stalled.pdf"), 16, 2);
+            CompletableFuture<Path> next = pdfFetcher.fetchAsync(baseUrl + "/full.pdf", tempDir.resolve("next.pdf"));
+
+            ExecutionException error = assertThrows(ExecutionException.class, () -> stalled.get(5, TimeUnit.SECONDS));
+            assertInstanceOf(HttpTimeoutException.class, error.getCause());
+            assertArrayEquals(DOCUMENT, Files.readAllBytes(next.get(5, TimeUnit.SECONDS)));
+        } finally {
+            stop.countDown();
+        }
+    }
+}
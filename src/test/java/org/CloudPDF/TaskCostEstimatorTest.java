@@ -0,0 +1,72 @@
+package org.CloudPDF;
+
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class TaskCostEstimatorTest {
+
+    /**
+     * An estimator whose HEAD requests answer from the given sizes, -1 for any other URL.
+     */
+    static TaskCostEstimator estimator(Map<String, Long> contentLengths) {
+        PdfFetcher pdfFetcher = new PdfFetcher(Duration.ofSeconds(1), Duration.ofSeconds(1), Duration.ofSeconds(1), 1,
+                Runnable::run) {
+            @Override
+            public CompletableFuture<Long> contentLengthAsync(String pdfUrl) {
+                return CompletableFuture.completedFuture(contentLengths.getOrDefault(pdfUrl, -1L));
+            }
+        };
+        return new TaskCostEstimator(pdfFetcher, 1000);
+    }
+
+    @Test
+    void startsFromDefaultCosts() {
+        TaskCostEstimator estimator = estimator(Map.of());
+
+        assertEquals(150, estimator.convertMillis(TaskLine.parse("ToText http://host/a.pdf")));
+        assertEquals(2400, estimator.convertMillis(TaskLine.parse("ToImage http://host/a.pdf 1-4")));
+        assertEquals(150, estimator.convertMillis(TaskLine.parse("ToHTML http://host/a.pdf 3-")));
+        assertEquals(210, estimator.downloadMillis("http://host/a.pdf", -1));
+        assertEquals(100, estimator.downloadMillis("http://host/a.pdf", 500_000));
+    }
+
+    @Test
+    void followsReportedTimings() {
+        TaskCostEstimator estimator = estimator(Map.of());
+
+        estimator.recordTimings(TaskCostEstimator.convertTiming("ToText", 1, 1150) + "\n"
+                + TaskCostEstimator.fetchTiming("http://Host/a.pdf", 1_000_000, 100));
+
+        // Per-page costs move from their defaults; a host's first download is its throughput
+        assertEquals(1400, estimator.convertMillis(TaskLine.parse("ToText http://host/b.pdf 1-4")));
+        assertEquals(60, estimator.downloadMillis("http://host/b.pdf", 600_000));
+        assertEquals(120, estimator.downloadMillis("http://other/b.pdf", 600_000));
+
+        estimator.recordTimings(TaskCostEstimator.fetchTiming("http://host/a.pdf", 500_000, 100));
+        assertEquals(67, estimator.downloadMillis("http://host/b.pdf", 600_000));
+    }
+
+    @Test
+    void ignoresMalformedTimings() {
+        TaskCostEstimator estimator = estimator(Map.of());
+
+        estimator.recordTimings("convert TOTEXT many 10\nfetch host\nconvert TOFOO 1 10\n\nsomething else");
+
+        assertEquals(150, estimator.convertMillis(TaskLine.parse("ToText http://host/a.pdf")));
+        assertEquals(210, estimator.downloadMillis("http://host/a.pdf", -1));
+    }
+
+    @Test
+    void leavesOutUnknownContentLengths() {
+        TaskCostEstimator estimator = estimator(Map.of("http://host/a.pdf", 42L));
+
+        assertEquals(Map.of("http://host/a.pdf", 42L),
+                estimator.contentLengths(List.of("http://host/a.pdf", "http://host/b.pdf")));
+    }
+}
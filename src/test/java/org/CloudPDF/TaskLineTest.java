@@ -0,0 +1,33 @@
+package org.CloudPDF;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class TaskLineTest {
+
+    @Test
+    void parsesOperationUrlPagesAndPart() {
+        assertEquals(new TaskLine("ToText", "http://a/1.pdf", null, null), TaskLine.parse("ToText http://a/1.pdf"));
+        assertEquals(new TaskLine("ToHTML", "http://a/1.pdf", new PageRange(2, 4), null),
+                TaskLine.parse("  ToHTML \t http://a/1.pdf 2-4 "));
+        assertEquals(new TaskLine("ToImage", "http://a/1.pdf", new PageRange(1, 10), "x1"),
+                TaskLine.parse("ToImage http://a/1.pdf 1-10 part:x1"));
+    }
+
+    @Test
+    void rejectsMalformedLines() {
+        assertNull(TaskLine.parse(""));
+        assertNull(TaskLine.parse("ToText"));
+        assertNull(TaskLine.parse("ToText http://a/1.pdf pages"));
+        assertNull(TaskLine.parse("ToText http://a/1.pdf 1-4 chunk:x1"));
+        assertNull(TaskLine.parse("ToText http://a/1.pdf 1-4 part:x1 extra"));
+    }
+
+    @Test
+    void formatsAsItParses() {
+        for (String line : new String[]{"ToText http://a/1.pdf", "ToText http://a/1.pdf 3-", "ToText http://a/1.pdf 1-10 part:x1"}) {
+            assertEquals(line, TaskLine.parse(line).format());
+        }
+    }
+}
@@ -0,0 +1,46 @@
+package org.CloudPDF;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class WorkerRegistryTest {
+    private final WorkerRegistry registry = new WorkerRegistry();
+
+    private void report(String instanceId, WorkerRegistry.State state, int packetsInFlight) {
+        registry.record(WorkerRegistry.statusLine(instanceId, state, packetsInFlight));
+    }
+
+    @Test
+    void drainsTheCheapestWorkersFirst() {
+        report("busy", WorkerRegistry.State.BUSY, 3);
+        report("idle", WorkerRegistry.State.IDLE, 0);
+        report("light", WorkerRegistry.State.BUSY, 1);
+
+        assertEquals(List.of("idle", "booting"),
+                registry.pickForRemoval(List.of("busy", "idle", "light", "booting"), 2));
+    }
+
+    @Test
+    void keepsDrainedOverLateReports() {
+        registry.startDrain("w1");
+        report("w1", WorkerRegistry.State.DRAINED, 0);
+        report("w1", WorkerRegistry.State.IDLE, 0);
+
+        assertTrue(registry.isDrained("w1"));
+        assertEquals(List.of("w1"), registry.drained());
+    }
+
+    @Test
+    void reportsOnlyDrainingWorkersAsDrained() {
+        report("w1", WorkerRegistry.State.DRAINED, 0);
+        registry.startDrain("w2");
+        report("w2", WorkerRegistry.State.BUSY, 2);
+
+        assertEquals(List.of(), registry.drained());
+        registry.forget("w1");
+        assertFalse(registry.isDrained("w1"));
+    }
+}